@@ -1775,4 +1775,17 @@ public class FoldToASCII
         }
 
     }
+
+    /**
+     * All instances fold alike, so that they share one folding table.
+     */
+    @Override
+    public boolean equals(Object obj) {
+        return obj != null && obj.getClass() == getClass();
+    }
+
+    @Override
+    public int hashCode() {
+        return getClass().hashCode();
+    }
 }
@@ -0,0 +1,113 @@
+package org.ahocorasick.trie;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * <p>
+ *     Maps the characters used by the keywords onto dense codes 1..size()-1. Characters which do not
+ *     appear in any keyword map onto code 0; no state has a transition on them.
+ * </p>
+ *
+ * <p>
+ *     The mapping is held in pages of 256 entries, with all untouched pages sharing one empty page, so a
+ *     lookup costs two array reads and a small alphabet costs a few kilobytes.
+ * </p>
+ */
+final class Alphabet
+        implements Serializable {
+
+    private static final long serialVersionUID = 2405310562235418232L;
+
+    private static final int PAGE_BITS = 8;
+
+    private static final int PAGE_MASK = (1 << PAGE_BITS) - 1;
+
+    private final int[][] pages;
+
+    private final int size;
+
+    /**
+     * @param characters the characters to encode; the first character gets code 1, the second code 2, etc.
+     */
+    Alphabet(char[] characters) {
+        int[] emptyPage = new int[1 << PAGE_BITS];
+        this.pages = new int[1 << (Character.SIZE - PAGE_BITS)][];
+        Arrays.fill(this.pages, emptyPage);
+        int code = 0;
+        for (char character : characters) {
+            int[] page = this.pages[character >>> PAGE_BITS];
+            if (page == emptyPage) {
+                page = new int[1 << PAGE_BITS];
+                this.pages[character >>> PAGE_BITS] = page;
+            }
+            if (page[character & PAGE_MASK] == 0) {
+                page[character & PAGE_MASK] = ++code;
+            }
+        }
+        this.size = code + 1;
+    }
+
+    /**
+     * Builds an alphabet over the transitions of the given states, giving the most frequently used
+     * characters the lowest codes.
+     */
+    static Alphabet of(Iterable<State> states) {
+        int[] counts = new int[Character.MAX_VALUE + 1];
+        int distinct = 0;
+        for (State state : states) {
+            for (char transition : state.getTransitionCharacters()) {
+                if (counts[transition]++ == 0) {
+                    distinct++;
+                }
+            }
+        }
+        // sort on descending count, then ascending character, packed into a single long to avoid boxing
+        long[] keys = new long[distinct];
+        int index = 0;
+        for (int character = 0; character < counts.length; character++) {
+            if (counts[character] > 0) {
+                keys[index++] = ((long) -counts[character] << Character.SIZE) | character;
+            }
+        }
+        Arrays.sort(keys);
+        char[] characters = new char[distinct];
+        for (index = 0; index < distinct; index++) {
+            characters[index] = (char) keys[index];
+        }
+        return new Alphabet(characters);
+    }
+
+    /**
+     * Writes the characters in the order of their codes, which is all {@link #Alphabet(char[])} needs.
+     */
+    void write(TrieFile.Output out) throws IOException {
+        char[] characters = new char[this.size - 1];
+        for (int character = 0; character <= Character.MAX_VALUE; character++) {
+            int code = code((char) character);
+            if (code != 0) {
+                characters[code - 1] = (char) character;
+            }
+        }
+        out.writeChars(characters);
+    }
+
+    static Alphabet read(TrieFile.Input in) throws IOException {
+        char[] characters = in.readChars();
+        if (characters == null) {
+            throw new IOException("Corrupt alphabet");
+        }
+        return new Alphabet(characters);
+    }
+
+    int code(char character) {
+        return this.pages[character >>> PAGE_BITS][character & PAGE_MASK];
+    }
+
+    /** number of codes, including code 0 for characters outside the alphabet */
+    int size() {
+        return this.size;
+    }
+
+}
@@ -0,0 +1,48 @@
+package org.ahocorasick.trie;
+
+import java.io.Serializable;
+
+/**
+ * <p>
+ *     The goto, fail and output functions of a built trie. States are addressed by plain int numbers so
+ *     that the scan loop in {@link Trie} runs the same way regardless of how the transitions are stored.
+ * </p>
+ *
+ * <p>
+ *     The root state can never fail; {@link #nextState(int, char)} always returns a valid state.
+ * </p>
+ */
+interface Automaton
+        extends Serializable {
+
+    /** returned by {@link #dictionarySuffix(int)} when no state on the failure chain emits keywords */
+    int NO_STATE = -1;
+
+    int getRootState();
+
+    /**
+     * Returns the state reached from the given state on the given character, following failure
+     * transitions where the goto structure has no matching transition.
+     */
+    int nextState(int state, char character);
+
+    /**
+     * Returns the number of keywords ending in the given state itself; keywords ending in states on its
+     * failure chain are found through {@link #dictionarySuffix(int)}.
+     */
+    int emitCount(int state);
+
+    /**
+     * Returns the id of one of the keywords ending in the given state.
+     *
+     * @param index 0 up to {@link #emitCount(int)}
+     */
+    int emit(int state, int index);
+
+    /**
+     * Returns the nearest state on the failure chain of the given state which emits keywords, or
+     * {@link #NO_STATE} if there is none.
+     */
+    int dictionarySuffix(int state);
+
+}
@@ -0,0 +1,159 @@
+package org.ahocorasick.trie;
+
+/**
+ * <p>
+ *     An open-addressing map from primitive chars to states, used for the 'goto' structure of a {@link State}.
+ *     Unlike a HashMap&lt;Character,State&gt; it neither boxes the key on lookup nor allocates an entry
+ *     object per transition: the keys and values are held in two parallel arrays with linear probing.
+ * </p>
+ *
+ * <p>
+ *     An empty slot is marked by a null value, so every char including '\0' can be used as a key.
+ * </p>
+ */
+final class CharStateMap
+        extends Transitions {
+
+    private static final long serialVersionUID = 3305719248716327503L;
+
+    private static final int INITIAL_CAPACITY = 4;
+
+    private char[] keys;
+
+    private State[] values;
+
+    private int size = 0;
+
+    CharStateMap() {
+        this.keys = new char[INITIAL_CAPACITY];
+        this.values = new State[INITIAL_CAPACITY];
+    }
+
+    @Override
+    State get(char key) {
+        int mask = this.keys.length - 1;
+        int slot = hash(key) & mask;
+        State value;
+        while ((value = this.values[slot]) != null) {
+            if (this.keys[slot] == key) {
+                return value;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    void put(char key, State value) {
+        int mask = this.keys.length - 1;
+        int slot = hash(key) & mask;
+        while (this.values[slot] != null) {
+            if (this.keys[slot] == key) {
+                this.values[slot] = value;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        this.keys[slot] = key;
+        this.values[slot] = value;
+        // keep the load factor at or below 3/4
+        if (++this.size * 4 > this.keys.length * 3) {
+            rehash(this.keys.length * 2);
+        }
+    }
+
+    /**
+     * Removes the transition on the given character, shifting the entries behind it back so that no
+     * tombstones are needed.
+     *
+     * @return the removed state, or null if there was no transition on the character
+     */
+    State remove(char key) {
+        int mask = this.keys.length - 1;
+        int slot = hash(key) & mask;
+        while (this.values[slot] != null && this.keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        State removed = this.values[slot];
+        if (removed == null) {
+            return null;
+        }
+        this.values[slot] = null;
+        this.size--;
+        for (int next = (slot + 1) & mask; this.values[next] != null; next = (next + 1) & mask) {
+            int home = hash(this.keys[next]) & mask;
+            // move the entry into the hole unless its home slot lies cyclically after the hole
+            boolean reachable = slot <= next ? home <= slot || home > next : home <= slot && home > next;
+            if (reachable) {
+                this.keys[slot] = this.keys[next];
+                this.values[slot] = this.values[next];
+                this.values[next] = null;
+                slot = next;
+            }
+        }
+        return removed;
+    }
+
+    @Override
+    int size() {
+        return this.size;
+    }
+
+    @Override
+    char[] keys() {
+        char[] keys = new char[this.size];
+        int index = 0;
+        for (int slot = 0; slot < this.values.length; slot++) {
+            if (this.values[slot] != null) {
+                keys[index++] = this.keys[slot];
+            }
+        }
+        return keys;
+    }
+
+    @Override
+    State[] values() {
+        State[] values = new State[this.size];
+        int index = 0;
+        for (State value : this.values) {
+            if (value != null) {
+                values[index++] = value;
+            }
+        }
+        return values;
+    }
+
+    @Override
+    long footprint() {
+        return OBJECT_OVERHEAD * 3 + this.keys.length * 2L + this.values.length * (long) REFERENCE_SIZE;
+    }
+
+    @Override
+    CharStateMap toMap() {
+        return this;
+    }
+
+    private void rehash(int capacity) {
+        char[] oldKeys = this.keys;
+        State[] oldValues = this.values;
+        this.keys = new char[capacity];
+        this.values = new State[capacity];
+        int mask = capacity - 1;
+        for (int oldSlot = 0; oldSlot < oldValues.length; oldSlot++) {
+            if (oldValues[oldSlot] != null) {
+                int slot = hash(oldKeys[oldSlot]) & mask;
+                while (this.values[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                this.keys[slot] = oldKeys[oldSlot];
+                this.values[slot] = oldValues[oldSlot];
+            }
+        }
+    }
+
+    private static int hash(char key) {
+        // spread the bits so that runs of consecutive characters do not cluster
+        int hash = key * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+}
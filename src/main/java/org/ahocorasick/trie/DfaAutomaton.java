@@ -0,0 +1,148 @@
+package org.ahocorasick.trie;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * <p>
+ *     A compiled automaton where the failure transitions have been folded into the goto table, turning it
+ *     into a deterministic finite automaton. Every (state, character code) pair is resolved up front, so a
+ *     scan costs exactly one table lookup per character, no matter how the dictionary is shaped.
+ * </p>
+ *
+ * <p>
+ *     The table holds one row of {@link Alphabet#size()} ints per state, which can become very large. Use
+ *     {@link #estimateSize(int, int)} to decide whether a dictionary should be compiled this way.
+ * </p>
+ */
+final class DfaAutomaton
+        implements Automaton {
+
+    private static final long serialVersionUID = 5136079471837462906L;
+
+    private static final int ROOT = 0;
+
+    private final Alphabet alphabet;
+
+    /** the number of columns in the transition table */
+    private final int width;
+
+    private final int[] transitions;
+
+    private final int[] output;
+
+    private final EmitTable outputs;
+
+    private final int[] dictionarySuffix;
+
+    private DfaAutomaton(Alphabet alphabet, int[] transitions, int[] output, EmitTable outputs,
+                         int[] dictionarySuffix) {
+        this.alphabet = alphabet;
+        this.width = alphabet.size();
+        this.transitions = transitions;
+        this.output = output;
+        this.outputs = outputs;
+        this.dictionarySuffix = dictionarySuffix;
+    }
+
+    /**
+     * Compiles the state graph. The failure states must already have been constructed.
+     *
+     * @param states all states in breadth-first order, indexed by their id
+     * @throws IllegalStateException if the table does not fit in a single array
+     */
+    static DfaAutomaton compile(List<State> states) {
+        Alphabet alphabet = Alphabet.of(states);
+        int width = alphabet.size();
+        long cells = (long) states.size() * width;
+        if (cells > Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException("The DFA for " + states.size() + " states and " + width +
+                    " characters needs " + cells + " table entries, which is more than a single array can hold");
+        }
+        int[] transitions = new int[(int) cells];
+        int[] output = new int[states.size()];
+        EmitTable outputs = new EmitTable();
+        int[] dictionarySuffix = new int[states.size()];
+
+        // breadth-first order guarantees that the row of the failure state is complete before it is copied
+        for (State state : states) {
+            int row = state.getId() * width;
+            if (state.getId() != ROOT) {
+                System.arraycopy(transitions, state.failure().getId() * width, transitions, row, width);
+            }
+            for (char transition : state.getTransitionCharacters()) {
+                transitions[row + alphabet.code(transition)] = state.nextStateIgnoreRootState(transition).getId();
+            }
+            output[state.getId()] = outputs.add(state.emit());
+            dictionarySuffix[state.getId()] = state.dictionarySuffix() == null ?
+                    NO_STATE : state.dictionarySuffix().getId();
+        }
+        return new DfaAutomaton(alphabet, transitions, output, outputs.trim(), dictionarySuffix);
+    }
+
+    /**
+     * Estimates the heap needed by the compiled tables, in bytes.
+     *
+     * @param stateCount the number of states in the trie
+     * @param alphabetSize the number of distinct characters used by the keywords
+     */
+    static long estimateSize(int stateCount, int alphabetSize) {
+        long transitions = (long) stateCount * (alphabetSize + 1) * 4;
+        // the output index and the dictionary suffix of every state
+        long output = (long) stateCount * 4 * 2;
+        // the alphabet has at most one page of 256 ints per used character, plus the page index
+        long alphabet = Math.min(alphabetSize, 256) * 256L * 4 + 256 * 8;
+        return transitions + output + alphabet;
+    }
+
+    /**
+     * Writes the alphabet, then the transition table, the output array, the emit table and the dictionary
+     * suffixes.
+     */
+    void write(TrieFile.Output out) throws IOException {
+        this.alphabet.write(out);
+        out.writeInts(this.transitions);
+        out.writeInts(this.output);
+        this.outputs.write(out);
+        out.writeInts(this.dictionarySuffix);
+    }
+
+    static DfaAutomaton read(TrieFile.Input in) throws IOException {
+        Alphabet alphabet = Alphabet.read(in);
+        int[] transitions = in.readInts();
+        int[] output = in.readInts();
+        EmitTable outputs = EmitTable.read(in);
+        int[] dictionarySuffix = in.readInts();
+        if (output.length == 0 || transitions.length != (long) output.length * alphabet.size() ||
+                dictionarySuffix.length != output.length) {
+            throw new IOException("Corrupt DFA");
+        }
+        return new DfaAutomaton(alphabet, transitions, output, outputs, dictionarySuffix);
+    }
+
+    @Override
+    public int getRootState() {
+        return ROOT;
+    }
+
+    @Override
+    public int nextState(int state, char character) {
+        return this.transitions[state * this.width + this.alphabet.code(character)];
+    }
+
+    @Override
+    public int emitCount(int state) {
+        return this.outputs.count(this.output[state]);
+    }
+
+    @Override
+    public int emit(int state, int index) {
+        return this.outputs.get(this.output[state], index);
+    }
+
+    @Override
+    public int dictionarySuffix(int state) {
+        return this.dictionarySuffix[state];
+    }
+
+}
@@ -0,0 +1,283 @@
+package org.ahocorasick.trie;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <p>
+ *     A compiled, double-array representation of the automaton. Every state is an index into a set of
+ *     parallel int arrays:
+ * </p>
+ *
+ * <ul>
+ *     <li>base; the transition on character code c from state s leads to base[s] + c</li>
+ *     <li>check; the transition is only valid if check[base[s] + c] == s</li>
+ *     <li>fail; the failure state of s</li>
+ *     <li>output; offset of the emitted keyword ids, 0 if the state emits nothing</li>
+ *     <li>dictionarySuffix; the nearest state on the failure chain of s with output, or NO_STATE</li>
+ * </ul>
+ *
+ * <p>
+ *     States are placed in breadth-first order. The arrays are padded with one alphabet's worth of free
+ *     slots so that the lookup never needs a bounds check. Compared to the {@link State} graph this drops
+ *     the per-state HashMap and boxed Character keys, and the scan loop allocates nothing.
+ * </p>
+ */
+final class DoubleArrayAutomaton
+        implements Automaton {
+
+    private static final long serialVersionUID = -2693212405284525476L;
+
+    private static final int ROOT = 0;
+
+    private static final int FREE = -1;
+
+    /**
+     * when this fraction of the slots between the search start and the chosen position is occupied,
+     * the search start moves on, so that densely packed regions are not scanned again
+     */
+    private static final double DENSE_REGION = 0.95;
+
+    private final Alphabet alphabet;
+
+    private final int[] base;
+
+    private final int[] check;
+
+    private final int[] fail;
+
+    private final int[] output;
+
+    private final EmitTable outputs;
+
+    private final int[] dictionarySuffix;
+
+    private DoubleArrayAutomaton(Alphabet alphabet, int[] base, int[] check, int[] fail, int[] output,
+                                 EmitTable outputs, int[] dictionarySuffix) {
+        this.alphabet = alphabet;
+        this.base = base;
+        this.check = check;
+        this.fail = fail;
+        this.output = output;
+        this.outputs = outputs;
+        this.dictionarySuffix = dictionarySuffix;
+    }
+
+    /**
+     * Compiles the state graph. The failure states must already have been constructed.
+     *
+     * @param states all states in breadth-first order, indexed by their id
+     */
+    static DoubleArrayAutomaton compile(List<State> states) {
+        Alphabet alphabet = Alphabet.of(states);
+        Builder builder = new Builder(states.size() + alphabet.size());
+        int[] indexOf = new int[states.size()];
+        indexOf[ROOT] = ROOT;
+        builder.check[ROOT] = ROOT;
+
+        EmitTable outputs = new EmitTable();
+        int[] output = new int[builder.check.length];
+
+        for (State state : states) {
+            int index = indexOf[state.getId()];
+            placeTransitions(builder, alphabet, state, index, indexOf);
+            if (state.emit().length > 0) {
+                output = grow(output, index + 1);
+                output[index] = outputs.add(state.emit());
+            }
+        }
+
+        int length = builder.maxIndex + alphabet.size() + 1;
+        int[] fail = new int[length];
+        int[] dictionarySuffix = new int[length];
+        Arrays.fill(dictionarySuffix, NO_STATE);
+        for (State state : states) {
+            int index = indexOf[state.getId()];
+            if (state.getId() != ROOT) {
+                fail[index] = indexOf[state.failure().getId()];
+            }
+            if (state.dictionarySuffix() != null) {
+                dictionarySuffix[index] = indexOf[state.dictionarySuffix().getId()];
+            }
+        }
+        return new DoubleArrayAutomaton(
+                alphabet,
+                Arrays.copyOf(builder.base, length),
+                fillFree(Arrays.copyOf(builder.check, length), builder.check.length),
+                fail,
+                Arrays.copyOf(output, length),
+                outputs.trim(),
+                dictionarySuffix);
+    }
+
+    private static void placeTransitions(Builder builder, Alphabet alphabet, State state, int index, int[] indexOf) {
+        char[] transitions = state.getTransitionCharacters();
+        if (transitions.length == 0) {
+            return;
+        }
+        int[] codes = new int[transitions.length];
+        for (int i = 0; i < transitions.length; i++) {
+            codes[i] = alphabet.code(transitions[i]);
+        }
+        Arrays.sort(codes);
+        int base = builder.findBase(codes);
+        builder.base[index] = base;
+        for (char transition : transitions) {
+            int target = base + alphabet.code(transition);
+            builder.check[target] = index;
+            indexOf[state.nextStateIgnoreRootState(transition).getId()] = target;
+        }
+    }
+
+    private static int[] grow(int[] array, int minLength) {
+        if (array.length >= minLength) {
+            return array;
+        }
+        return Arrays.copyOf(array, Math.max(minLength, array.length + (array.length >> 1)));
+    }
+
+    private static int[] fillFree(int[] check, int from) {
+        if (from < check.length) {
+            Arrays.fill(check, from, check.length, FREE);
+        }
+        return check;
+    }
+
+    /**
+     * Writes the alphabet, then the base, check, fail and output arrays, the emit table and the dictionary
+     * suffixes.
+     */
+    void write(TrieFile.Output out) throws IOException {
+        this.alphabet.write(out);
+        out.writeInts(this.base);
+        out.writeInts(this.check);
+        out.writeInts(this.fail);
+        out.writeInts(this.output);
+        this.outputs.write(out);
+        out.writeInts(this.dictionarySuffix);
+    }
+
+    static DoubleArrayAutomaton read(TrieFile.Input in) throws IOException {
+        Alphabet alphabet = Alphabet.read(in);
+        int[] base = in.readInts();
+        int[] check = in.readInts();
+        int[] fail = in.readInts();
+        int[] output = in.readInts();
+        EmitTable outputs = EmitTable.read(in);
+        int[] dictionarySuffix = in.readInts();
+        int length = base.length;
+        if (length == 0 || check.length != length || fail.length != length || output.length != length ||
+                dictionarySuffix.length != length) {
+            throw new IOException("Corrupt double array");
+        }
+        return new DoubleArrayAutomaton(alphabet, base, check, fail, output, outputs, dictionarySuffix);
+    }
+
+    @Override
+    public int getRootState() {
+        return ROOT;
+    }
+
+    @Override
+    public int nextState(int state, char character) {
+        int code = this.alphabet.code(character);
+        if (code == 0) {
+            // no keyword contains this character, so every state fails back to the root
+            return ROOT;
+        }
+        while (true) {
+            int target = this.base[state] + code;
+            if (this.check[target] == state) {
+                return target;
+            }
+            if (state == ROOT) {
+                return ROOT;
+            }
+            state = this.fail[state];
+        }
+    }
+
+    @Override
+    public int emitCount(int state) {
+        return this.outputs.count(this.output[state]);
+    }
+
+    @Override
+    public int emit(int state, int index) {
+        return this.outputs.get(this.output[state], index);
+    }
+
+    @Override
+    public int dictionarySuffix(int state) {
+        return this.dictionarySuffix[state];
+    }
+
+    /**
+     * Holds the growing base and check arrays while the transitions are being placed.
+     */
+    private static class Builder {
+
+        private int[] base;
+
+        private int[] check;
+
+        private int maxIndex = 0;
+
+        private int nextCheckPosition = 1;
+
+        private Builder(int capacity) {
+            this.base = new int[capacity];
+            this.check = new int[capacity];
+            Arrays.fill(this.check, FREE);
+        }
+
+        private int findBase(int[] codes) {
+            int first = codes[0];
+            int last = codes[codes.length - 1];
+            int position = Math.max(first, this.nextCheckPosition) - 1;
+            int occupied = 0;
+            boolean firstFree = true;
+            int base;
+            search:
+            while (true) {
+                position++;
+                ensureCapacity(position);
+                if (this.check[position] != FREE) {
+                    occupied++;
+                    continue;
+                }
+                if (firstFree) {
+                    this.nextCheckPosition = position;
+                    firstFree = false;
+                }
+                base = position - first;
+                ensureCapacity(base + last);
+                for (int code : codes) {
+                    if (this.check[base + code] != FREE) {
+                        continue search;
+                    }
+                }
+                break;
+            }
+            if ((double) occupied / (position - this.nextCheckPosition + 1) >= DENSE_REGION) {
+                this.nextCheckPosition = position;
+            }
+            this.maxIndex = Math.max(this.maxIndex, base + last);
+            return base;
+        }
+
+        private void ensureCapacity(int index) {
+            if (index < this.check.length) {
+                return;
+            }
+            int oldLength = this.check.length;
+            int newLength = Math.max(index + 1, oldLength + (oldLength >> 1));
+            this.base = Arrays.copyOf(this.base, newLength);
+            this.check = Arrays.copyOf(this.check, newLength);
+            Arrays.fill(this.check, oldLength, newLength, FREE);
+        }
+
+    }
+
+}
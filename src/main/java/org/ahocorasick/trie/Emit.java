@@ -3,22 +3,52 @@ package org.ahocorasick.trie;
 import org.ahocorasick.interval.Interval;
 import org.ahocorasick.interval.Intervalable;
 
+import java.util.List;
+
 public class Emit extends Interval implements Intervalable {
 
+    /** the keyword id of an emit which was not produced by a trie */
+    public static final int NO_KEYWORD_ID = -1;
+
+    private final int keywordId;
+
     private final String keyword;
 
+    /** the keyword table of the trie, used to resolve the keyword only when it is asked for */
+    private final List<String> keywords;
+
     public Emit(final int start, final int end, final String keyword) {
+        this(start, end, keyword, NO_KEYWORD_ID);
+    }
+
+    public Emit(final int start, final int end, final String keyword, final int keywordId) {
         super(start, end);
+        this.keywordId = keywordId;
         this.keyword = keyword;
+        this.keywords = null;
+    }
+
+    Emit(final int start, final int end, final int keywordId, final List<String> keywords) {
+        super(start, end);
+        this.keywordId = keywordId;
+        this.keyword = null;
+        this.keywords = keywords;
     }
 
     public String getKeyword() {
-        return this.keyword;
+        return this.keywords == null ? this.keyword : this.keywords.get(this.keywordId);
+    }
+
+    /**
+     * @return the id of the keyword in the trie that produced this emit, see {@link Trie#getKeyword(int)}
+     */
+    public int getKeywordId() {
+        return this.keywordId;
     }
 
     @Override
     public String toString() {
-        return super.toString() + "=" + this.keyword;
+        return super.toString() + "=" + getKeyword();
     }
 
 }
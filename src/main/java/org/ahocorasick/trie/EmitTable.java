@@ -0,0 +1,91 @@
+package org.ahocorasick.trie;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * <p>
+ *     Holds the emitted keyword ids of a compiled automaton in a single int array. The emits of a state are
+ *     stored as a count followed by that many keyword ids, and states refer to them by the offset of the
+ *     count. Offset 0 holds a count of 0 and is shared by all states which emit nothing.
+ * </p>
+ *
+ * <p>
+ *     A state with a single keyword thus costs two ints, without any per-state objects.
+ * </p>
+ */
+final class EmitTable
+        implements Serializable {
+
+    private static final long serialVersionUID = 6358401367285102374L;
+
+    private int[] emits;
+
+    private int size;
+
+    EmitTable() {
+        this.emits = new int[16];
+        this.size = 1;
+    }
+
+    private EmitTable(int[] emits) {
+        this.emits = emits;
+        this.size = emits.length;
+    }
+
+    /**
+     * @return the offset to pass to {@link #count(int)} and {@link #get(int, int)}, 0 if there is nothing
+     *      to emit
+     */
+    int add(int[] keywordIds) {
+        if (keywordIds.length == 0) {
+            return 0;
+        }
+        if (this.size + keywordIds.length + 1 > this.emits.length) {
+            this.emits = Arrays.copyOf(this.emits,
+                    Math.max(this.size + keywordIds.length + 1, this.emits.length + (this.emits.length >> 1)));
+        }
+        int offset = this.size;
+        this.emits[offset] = keywordIds.length;
+        System.arraycopy(keywordIds, 0, this.emits, offset + 1, keywordIds.length);
+        this.size += keywordIds.length + 1;
+        return offset;
+    }
+
+    int count(int offset) {
+        return this.emits[offset];
+    }
+
+    int get(int offset, int index) {
+        return this.emits[offset + 1 + index];
+    }
+
+    void write(TrieFile.Output out) throws IOException {
+        out.writeInts(Arrays.copyOf(this.emits, this.size));
+    }
+
+    static EmitTable read(TrieFile.Input in) throws IOException {
+        int[] emits = in.readInts();
+        if (emits.length == 0 || emits[0] != 0) {
+            throw new IOException("Corrupt emit table");
+        }
+        return new EmitTable(emits);
+    }
+
+    /**
+     * @return the estimated bytes taken by the table
+     */
+    long footprint() {
+        return Transitions.OBJECT_OVERHEAD * 2 + this.emits.length * 4L;
+    }
+
+    /**
+     * Drops the spare capacity once all emits have been added.
+     */
+    EmitTable trim() {
+        this.emits = Arrays.copyOf(this.emits, this.size);
+        return this;
+    }
+
+}
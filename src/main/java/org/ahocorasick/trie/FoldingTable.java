@@ -0,0 +1,251 @@
+package org.ahocorasick.trie;
+
+import org.ahocorasick.text.AbstractCharacterConverter;
+import org.ahocorasick.text.CharacterConverter;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * <p>
+ *     What every character turns into before it is fed into the automaton: the conversion of the
+ *     {@link CharacterConverter}, if any, with each resulting character lower-cased for a case insensitive
+ *     trie. The table is computed once for all 65536 characters, so scanning a character which folds into a
+ *     single character costs one array read instead of a call to the converter and an allocation. Keywords
+ *     are folded through the same table, so that keywords and text always agree.
+ * </p>
+ *
+ * <p>
+ *     Characters which fold into no character or into several are marked with {@link #EXPANDED} and their
+ *     folding is kept in a short sorted table beside it. The table of a case insensitive trie without a
+ *     converter is shared, as lower-casing never expands a character.
+ * </p>
+ *
+ * <p>
+ *     Computing a table calls the converter for every character, which takes milliseconds. The tables of
+ *     the converters are therefore cached, weakly, by the converter: a converter which is used for several
+ *     builds, or which is equal to one that was, gets its table from the cache.
+ * </p>
+ *
+ * <p>
+ *     A trie file stores the table instead of the converter, so a loaded trie folds exactly as the saved
+ *     one did, whatever the converter was.
+ * </p>
+ */
+final class FoldingTable
+        implements Serializable {
+
+    private static final long serialVersionUID = 6402981357214083619L;
+
+    /**
+     * returned by {@link #fold(char)} for a character whose folding is not a single character; a character
+     * which folds into this character itself is marked as well, with an expansion of one character
+     */
+    static final char EXPANDED = '\uffff';
+
+    private static FoldingTable lowerCase;
+
+    /** the tables of the converters, for case sensitive and case insensitive tries; guarded by the class */
+    private static final Map<CharacterConverter, FoldingTable> caseSensitiveTables = new WeakHashMap<>();
+
+    private static final Map<CharacterConverter, FoldingTable> caseInsensitiveTables = new WeakHashMap<>();
+
+    private static final int SIZE = Character.MAX_VALUE + 1;
+
+    private final char[] folded;
+
+    /** the characters marked as expanded, in ascending order */
+    private final char[] expandedCharacters;
+
+    private final char[][] expansions;
+
+    private FoldingTable(char[] folded, char[] expandedCharacters, char[][] expansions) {
+        this.folded = folded;
+        this.expandedCharacters = expandedCharacters;
+        this.expansions = expansions;
+    }
+
+    private FoldingTable(boolean caseInsensitive, CharacterConverter characterConverter) {
+        this.folded = new char[SIZE];
+        List<char[]> expansionList = new ArrayList<>();
+        StringBuilder expandedList = new StringBuilder();
+        for (int character = 0; character <= Character.MAX_VALUE; character++) {
+            char[] newCharacters = characterConverter == null ?
+                    new char[] { (char) character } : characterConverter.convert((char) character).clone();
+            if (caseInsensitive) {
+                for (int index = 0; index < newCharacters.length; index++) {
+                    newCharacters[index] = Character.toLowerCase(newCharacters[index]);
+                }
+            }
+            if (newCharacters.length == 1 && newCharacters[0] != EXPANDED) {
+                this.folded[character] = newCharacters[0];
+            } else {
+                this.folded[character] = EXPANDED;
+                expandedList.append((char) character);
+                expansionList.add(newCharacters);
+            }
+        }
+        this.expandedCharacters = expandedList.toString().toCharArray();
+        this.expansions = expansionList.toArray(new char[expansionList.size()][]);
+    }
+
+    /**
+     * Writes the folding of every character, then the expanded characters and their expansions: the length
+     * of every expansion, followed by all expansions concatenated into one char array.
+     */
+    void write(TrieFile.Output output) throws IOException {
+        output.writeChars(this.folded);
+        output.writeChars(this.expandedCharacters);
+        int[] lengths = new int[this.expansions.length];
+        StringBuilder characters = new StringBuilder();
+        for (int index = 0; index < lengths.length; index++) {
+            lengths[index] = this.expansions[index].length;
+            characters.append(this.expansions[index]);
+        }
+        output.writeInts(lengths);
+        output.writeChars(characters.toString().toCharArray());
+    }
+
+    static FoldingTable read(TrieFile.Input input) throws IOException {
+        char[] folded = input.readChars();
+        char[] expandedCharacters = input.readChars();
+        int[] lengths = input.readInts();
+        char[] characters = input.readChars();
+        if (folded == null || folded.length != SIZE || expandedCharacters == null || characters == null ||
+                lengths.length != expandedCharacters.length) {
+            throw new IOException("Corrupt folding table");
+        }
+        char[][] expansions = new char[lengths.length][];
+        int offset = 0;
+        for (int index = 0; index < lengths.length; index++) {
+            char character = expandedCharacters[index];
+            if (folded[character] != EXPANDED || (index > 0 && expandedCharacters[index - 1] >= character) ||
+                    lengths[index] < 0 || offset + lengths[index] > characters.length) {
+                throw new IOException("Corrupt folding table");
+            }
+            expansions[index] = Arrays.copyOfRange(characters, offset, offset + lengths[index]);
+            offset += lengths[index];
+        }
+        return new FoldingTable(folded, expandedCharacters, expansions);
+    }
+
+    /**
+     * @return a converter which folds every character as this table does; it is idempotent under
+     *      lower-casing, so a table computed from it for a case insensitive trie equals this one
+     */
+    CharacterConverter toCharacterConverter() {
+        return new TableConverter(this);
+    }
+
+    /**
+     * @return the table for the options, or null if the characters are fed into the automaton as they are
+     */
+    static FoldingTable of(boolean caseInsensitive, CharacterConverter characterConverter) {
+        if (characterConverter != null) {
+            Map<CharacterConverter, FoldingTable> tables =
+                    caseInsensitive ? caseInsensitiveTables : caseSensitiveTables;
+            synchronized (FoldingTable.class) {
+                FoldingTable table = tables.get(characterConverter);
+                if (table != null) {
+                    return table;
+                }
+            }
+            // computed outside of the lock, so that builds with different converters do not wait on each other
+            FoldingTable table = new FoldingTable(caseInsensitive, characterConverter);
+            synchronized (FoldingTable.class) {
+                tables.put(characterConverter, table);
+            }
+            return table;
+        }
+        if (!caseInsensitive) {
+            return null;
+        }
+        synchronized (FoldingTable.class) {
+            if (lowerCase == null) {
+                lowerCase = new FoldingTable(true, null);
+            }
+            return lowerCase;
+        }
+    }
+
+    /**
+     * @return the single character the character folds into, or {@link #EXPANDED}
+     */
+    char fold(char character) {
+        return this.folded[character];
+    }
+
+    /**
+     * @return the characters the character folds into if it is marked as {@link #EXPANDED}, possibly none;
+     *      or null if it folds into a single character
+     */
+    char[] expansion(char character) {
+        if (this.folded[character] != EXPANDED) {
+            return null;
+        }
+        return this.expansions[Arrays.binarySearch(this.expandedCharacters, character)];
+    }
+
+    /**
+     * @return the number of characters the character folds into
+     */
+    int length(char character) {
+        return this.folded[character] != EXPANDED ? 1 : expansion(character).length;
+    }
+
+    /**
+     * @return whether the folding of the character ends in white space, or is empty
+     */
+    boolean endsInWhiteSpaceOrNothing(char character) {
+        char folded = this.folded[character];
+        if (folded != EXPANDED) {
+            return Character.isWhitespace(folded);
+        }
+        char[] expansion = expansion(character);
+        return expansion.length == 0 || Character.isWhitespace(expansion[expansion.length - 1]);
+    }
+
+    /**
+     * Folds every character of the keyword.
+     */
+    String fold(CharSequence keyword) {
+        StringBuilder builder = new StringBuilder(keyword.length());
+        for (int index = 0; index < keyword.length(); index++) {
+            char character = keyword.charAt(index);
+            char folded = this.folded[character];
+            if (folded != EXPANDED) {
+                builder.append(folded);
+            } else {
+                builder.append(expansion(character));
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * The converter of a trie loaded from a file, which reads the stored table.
+     */
+    private static final class TableConverter
+            extends AbstractCharacterConverter {
+
+        private static final long serialVersionUID = -4718265093372510846L;
+
+        private final FoldingTable foldingTable;
+
+        private TableConverter(FoldingTable foldingTable) {
+            this.foldingTable = foldingTable;
+        }
+
+        @Override
+        public char[] convert(char character) {
+            char[] expansion = this.foldingTable.expansion(character);
+            return expansion != null ? expansion.clone() : new char[] { this.foldingTable.fold(character) };
+        }
+    }
+
+}
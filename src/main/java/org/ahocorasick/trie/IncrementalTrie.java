@@ -0,0 +1,467 @@
+package org.ahocorasick.trie;
+
+import org.ahocorasick.trie.handler.EmitHandler;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * <p>
+ *     A trie to which keywords can be added, and from which they can be removed, after it has been built.
+ *     Created by {@link Trie.TrieBuilder#buildIncremental()}.
+ * </p>
+ *
+ * <p>
+ *     A change does not rebuild the failure states of the whole trie. Adding a keyword computes the failure
+ *     state of each new state and re-points only the states whose longest suffix in the trie is now that new
+ *     state; these are found by walking the failure tree below the parent of the new state. Removing a
+ *     keyword drops the states which no longer lead to any keyword and hands their failure children to their
+ *     own failure state. Dictionary suffixes are repaired in the part of the failure tree below the states
+ *     whose output changed. The cost of a change is therefore proportional to the part of the automaton it
+ *     affects, although a new state just below the root can still affect every state ending in its character.
+ * </p>
+ *
+ * <p>
+ *     Keyword ids are reused, like state ids: a removed keyword frees its entry in the keyword table and the
+ *     next keyword which is added takes it, so the table never holds more entries than the largest number of
+ *     keywords present at once. Emits carry their keyword, so emits which were handed out before the removal
+ *     still resolve.
+ * </p>
+ *
+ * <p>
+ *     Scans and changes may run from any number of threads: scans share a read lock and changes take the
+ *     write lock. An {@link EmitHandler} is called while the read lock is held and must therefore not change
+ *     the trie.
+ * </p>
+ */
+public class IncrementalTrie {
+
+    private final TrieConfig trieConfig;
+
+    private final State rootState;
+
+    /** all states indexed by their id; a removed state leaves a null until its id is reused */
+    private final List<State> states;
+
+    private int[] freeIds = new int[0];
+
+    private int freeIdCount = 0;
+
+    /** the keyword table; a removed keyword leaves a null until its id is reused */
+    private final List<String> keywords;
+
+    private int[] freeKeywordIds = new int[0];
+
+    private int freeKeywordIdCount = 0;
+
+    /** the inverse of the failure function: for every state, the states which fail to it */
+    private final Map<State, Set<State>> failureChildren = new HashMap<>();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /** scans the live state graph; only used while holding the read lock */
+    private final LiveTrie trie;
+
+    /**
+     * @param states all states indexed by their id, with their failure states constructed
+     */
+    IncrementalTrie(TrieConfig trieConfig, List<State> states, List<String> keywords) {
+        this.trieConfig = trieConfig;
+        this.rootState = states.get(0);
+        this.states = new ArrayList<>(states);
+        this.keywords = new ArrayList<>(keywords);
+        for (State state : this.states) {
+            if (state != this.rootState) {
+                children(state.failure()).add(state);
+            }
+        }
+        this.trie = new LiveTrie(trieConfig, new LiveAutomaton(this.states), this.keywords);
+    }
+
+    /**
+     * Adds a keyword, repairing only the failure states and dictionary suffixes it affects.
+     *
+     * @return false if the keyword is empty or already present (after folding its characters, for a case
+     *      insensitive trie or one with a character converter)
+     */
+    public boolean addKeyword(String keyword) {
+        if (keyword == null || keyword.length() == 0) {
+            return false;
+        }
+        String storedKeyword = fold(keyword);
+        if (storedKeyword.length() == 0) {
+            return false;
+        }
+        this.lock.writeLock().lock();
+        try {
+            State state = this.rootState;
+            for (int index = 0; index < storedKeyword.length(); index++) {
+                char character = storedKeyword.charAt(index);
+                State nextState = state.nextStateIgnoreRootState(character);
+                if (nextState == null) {
+                    nextState = state.addState(character);
+                    attach(state, character, nextState);
+                }
+                state = nextState;
+            }
+            if (findKeywordId(state, storedKeyword) != Emit.NO_KEYWORD_ID) {
+                return false;
+            }
+            state.addEmit(allocateKeywordId(storedKeyword));
+            this.trie.keywordAdded(storedKeyword);
+            if (state.emit().length == 1) {
+                // the states failing to this one used to skip it on their way to the next output
+                for (State child : new ArrayList<>(children(state))) {
+                    refreshDictionarySuffixes(child);
+                }
+            }
+            return true;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes a keyword, dropping the states which no longer lead to any keyword.
+     *
+     * @return false if the keyword is not present
+     */
+    public boolean removeKeyword(String keyword) {
+        if (keyword == null || keyword.length() == 0) {
+            return false;
+        }
+        String storedKeyword = fold(keyword);
+        if (storedKeyword.length() == 0) {
+            return false;
+        }
+        this.lock.writeLock().lock();
+        try {
+            char[] characters = storedKeyword.toCharArray();
+            State[] path = new State[characters.length + 1];
+            path[0] = this.rootState;
+            for (int index = 0; index < characters.length; index++) {
+                path[index + 1] = path[index].nextStateIgnoreRootState(characters[index]);
+                if (path[index + 1] == null) {
+                    return false;
+                }
+            }
+            State endState = path[characters.length];
+            int keywordId = findKeywordId(endState, storedKeyword);
+            if (keywordId == Emit.NO_KEYWORD_ID) {
+                return false;
+            }
+            endState.removeEmit(keywordId);
+            this.keywords.set(keywordId, null);
+            if (this.freeKeywordIdCount == this.freeKeywordIds.length) {
+                this.freeKeywordIds = Arrays.copyOf(this.freeKeywordIds, Math.max(8, this.freeKeywordIdCount * 2));
+            }
+            this.freeKeywordIds[this.freeKeywordIdCount++] = keywordId;
+            if (endState.emit().length > 0) {
+                return true;
+            }
+            for (State child : new ArrayList<>(children(endState))) {
+                refreshDictionarySuffixes(child);
+            }
+            // drop the tail of the path which no longer leads to any keyword, deepest state first
+            for (int depth = characters.length; depth > 0; depth--) {
+                State state = path[depth];
+                if (state.hasTransitions() || state.emit().length > 0) {
+                    break;
+                }
+                detach(path[depth - 1], characters[depth - 1], state);
+            }
+            return true;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Gives a state which has just been added below the parent its id, failure state and dictionary suffix,
+     * and re-points the states whose longest suffix in the trie it now is.
+     */
+    private void attach(State parent, char character, State state) {
+        // the states which now fail to the new state are the targets on the character of the states in the
+        // failure tree below the parent, up to the first state which has a transition on the character
+        List<State> targets = new ArrayList<>();
+        Deque<State> pending = new ArrayDeque<>(children(parent));
+        while (!pending.isEmpty()) {
+            State candidate = pending.pop();
+            State target = candidate.nextStateIgnoreRootState(character);
+            if (target == null) {
+                pending.addAll(children(candidate));
+            } else {
+                targets.add(target);
+            }
+        }
+
+        allocateId(state);
+        State failure = this.rootState;
+        if (parent != this.rootState) {
+            State traceFailureState = parent.failure();
+            while (traceFailureState.nextState(character) == null) {
+                traceFailureState = traceFailureState.failure();
+            }
+            failure = traceFailureState.nextState(character);
+        }
+        state.setFailure(failure);
+        children(failure).add(state);
+        state.setDictionarySuffix(failure.emit().length == 0 ? failure.dictionarySuffix() : failure);
+
+        for (State target : targets) {
+            children(target.failure()).remove(target);
+            target.setFailure(state);
+            children(state).add(target);
+            refreshDictionarySuffixes(target);
+        }
+    }
+
+    /**
+     * Removes a state without transitions or emits from the trie. The states failing to it now fail to its
+     * failure state, which is the longest suffix left in the trie; as the removed state emitted nothing,
+     * their dictionary suffixes stay the same.
+     */
+    private void detach(State parent, char character, State state) {
+        parent.removeState(character);
+        State failure = state.failure();
+        children(failure).remove(state);
+        Set<State> orphans = this.failureChildren.remove(state);
+        if (orphans != null) {
+            for (State orphan : orphans) {
+                orphan.setFailure(failure);
+            }
+            children(failure).addAll(orphans);
+        }
+        this.states.set(state.getId(), null);
+        if (this.freeIdCount == this.freeIds.length) {
+            this.freeIds = Arrays.copyOf(this.freeIds, Math.max(8, this.freeIdCount * 2));
+        }
+        this.freeIds[this.freeIdCount++] = state.getId();
+    }
+
+    /**
+     * Recomputes the dictionary suffix of the state from its failure state and, if it changed, of the states
+     * below it in the failure tree which inherit it.
+     */
+    private void refreshDictionarySuffixes(State start) {
+        Deque<State> pending = new ArrayDeque<>();
+        pending.push(start);
+        while (!pending.isEmpty()) {
+            State state = pending.pop();
+            State failure = state.failure();
+            State dictionarySuffix = failure.emit().length == 0 ? failure.dictionarySuffix() : failure;
+            if (dictionarySuffix == state.dictionarySuffix()) {
+                continue;
+            }
+            state.setDictionarySuffix(dictionarySuffix);
+            // a state with emits of its own is the dictionary suffix of the states failing to it
+            if (state.emit().length == 0) {
+                pending.addAll(children(state));
+            }
+        }
+    }
+
+    private Set<State> children(State state) {
+        Set<State> children = this.failureChildren.get(state);
+        if (children == null) {
+            children = new HashSet<>();
+            this.failureChildren.put(state, children);
+        }
+        return children;
+    }
+
+    private void allocateId(State state) {
+        if (this.freeIdCount > 0) {
+            state.setId(this.freeIds[--this.freeIdCount]);
+            this.states.set(state.getId(), state);
+        } else {
+            state.setId(this.states.size());
+            this.states.add(state);
+        }
+    }
+
+    private int allocateKeywordId(String keyword) {
+        if (this.freeKeywordIdCount > 0) {
+            int keywordId = this.freeKeywordIds[--this.freeKeywordIdCount];
+            this.keywords.set(keywordId, keyword);
+            return keywordId;
+        }
+        this.keywords.add(keyword);
+        return this.keywords.size() - 1;
+    }
+
+    private int findKeywordId(State state, String keyword) {
+        for (int keywordId : state.emit()) {
+            if (this.keywords.get(keywordId).equals(keyword)) {
+                return keywordId;
+            }
+        }
+        return Emit.NO_KEYWORD_ID;
+    }
+
+    /**
+     * @return the keyword as it is stored, with its characters folded like those of the text
+     */
+    private String fold(String keyword) {
+        FoldingTable foldingTable = trieConfig.getFoldingTable();
+        return foldingTable == null ? keyword : foldingTable.fold(keyword);
+    }
+
+    /**
+     * Returns the keyword with the given id, or null if the keyword has been removed and its id not yet
+     * reused. Use {@link Emit#getKeyword()} to resolve the keyword of an emit, which stays valid.
+     */
+    public String getKeyword(int keywordId) {
+        this.lock.readLock().lock();
+        try {
+            return this.keywords.get(keywordId);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the size of the keyword table, which is one more than the highest keyword id in use and
+     *      includes the free ids of removed keywords
+     */
+    public int getKeywordCount() {
+        this.lock.readLock().lock();
+        try {
+            return this.keywords.size();
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    public Collection<Token> tokenize(String text) {
+        this.lock.readLock().lock();
+        try {
+            return this.trie.tokenize(text);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    public List<Emit> parseText(CharSequence text) {
+        this.lock.readLock().lock();
+        try {
+            return this.trie.parseText(text);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    public boolean containsMatch(CharSequence text) {
+        return firstMatch(text) != null;
+    }
+
+    public void parseText(CharSequence text, EmitHandler emitHandler) {
+        this.lock.readLock().lock();
+        try {
+            this.trie.parseText(text, emitHandler);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    public Emit firstMatch(CharSequence text) {
+        this.lock.readLock().lock();
+        try {
+            return this.trie.firstMatch(text);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Scans the live state graph. Emits carry their keyword, as the keyword table keeps changing after the
+     * read lock has been released.
+     */
+    private static final class LiveTrie
+            extends Trie {
+
+        private static final long serialVersionUID = 3849276501823475612L;
+
+        /** grows with the keyword table, under the write lock */
+        private volatile int maximumKeywordLength;
+
+        private LiveTrie(TrieConfig trieConfig, Automaton automaton, List<String> keywords) {
+            super(trieConfig, automaton, Collections.unmodifiableList(keywords));
+            this.maximumKeywordLength = super.getMaximumKeywordLength();
+        }
+
+        private void keywordAdded(String keyword) {
+            this.maximumKeywordLength = Math.max(this.maximumKeywordLength, keyword.length());
+        }
+
+        @Override
+        int getMaximumKeywordLength() {
+            return this.maximumKeywordLength;
+        }
+
+        @Override
+        Emit createEmit(int start, int end, int keywordId) {
+            return new Emit(start, end, getKeyword(keywordId), keywordId);
+        }
+    }
+
+    /**
+     * Like {@link StateGraphAutomaton}, but over the list of states itself, which grows and shrinks as
+     * keywords are added and removed.
+     */
+    private static final class LiveAutomaton
+            implements Automaton {
+
+        private static final long serialVersionUID = -2091584338710462317L;
+
+        private final List<State> states;
+
+        private LiveAutomaton(List<State> states) {
+            this.states = states;
+        }
+
+        @Override
+        public int getRootState() {
+            return 0;
+        }
+
+        @Override
+        public int nextState(int state, char character) {
+            State currentState = this.states.get(state);
+            State newCurrentState = currentState.nextState(character);
+            while (newCurrentState == null) {
+                currentState = currentState.failure();
+                newCurrentState = currentState.nextState(character);
+            }
+            return newCurrentState.getId();
+        }
+
+        @Override
+        public int emitCount(int state) {
+            return this.states.get(state).emit().length;
+        }
+
+        @Override
+        public int emit(int state, int index) {
+            return this.states.get(state).emit()[index];
+        }
+
+        @Override
+        public int dictionarySuffix(int state) {
+            State dictionarySuffix = this.states.get(state).dictionarySuffix();
+            return dictionarySuffix == null ? NO_STATE : dictionarySuffix.getId();
+        }
+    }
+
+}
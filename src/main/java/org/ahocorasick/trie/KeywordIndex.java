@@ -0,0 +1,140 @@
+package org.ahocorasick.trie;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <p>
+ *     Finds the ids of the keywords spelled by a range of the text, for automata whose states no longer
+ *     correspond to a single keyword. The index is keyed by the characters the automaton consumes for each
+ *     keyword, so for a case insensitive trie the text is lower-cased one character at a time while it is
+ *     hashed, exactly as the scan does.
+ * </p>
+ *
+ * <p>
+ *     The keys are held in an open-addressing table. Where a key equals the keyword itself, which is the
+ *     usual case, the keyword's string is shared rather than copied.
+ * </p>
+ */
+final class KeywordIndex
+        implements Serializable {
+
+    private static final long serialVersionUID = -5298113370641852317L;
+
+    private final String[] keys;
+
+    private final int[][] keywordIds;
+
+    private final boolean caseInsensitive;
+
+    /** estimated bytes taken by the index, not counting keys shared with the keyword table */
+    private final long footprint;
+
+    private KeywordIndex(List<String> keys, List<int[]> keywordIds, boolean caseInsensitive, long copiedKeyBytes) {
+        int capacity = Integer.highestOneBit(Math.max(2, keys.size() * 2 - 1)) << 1;
+        this.keys = new String[capacity];
+        this.keywordIds = new int[capacity][];
+        this.caseInsensitive = caseInsensitive;
+        int mask = capacity - 1;
+        for (int index = 0; index < keys.size(); index++) {
+            int slot = spread(keys.get(index).hashCode()) & mask;
+            while (this.keys[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            this.keys[slot] = keys.get(index);
+            this.keywordIds[slot] = keywordIds.get(index);
+        }
+        long idBytes = 0;
+        for (int[] ids : keywordIds) {
+            idBytes += Transitions.OBJECT_OVERHEAD + ids.length * 4L;
+        }
+        this.footprint = Transitions.OBJECT_OVERHEAD * 3 + capacity * 2L * Transitions.REFERENCE_SIZE + idBytes +
+                copiedKeyBytes;
+    }
+
+    /**
+     * Indexes the keywords emitted by the states below the root, by the characters on their path.
+     */
+    static KeywordIndex of(State rootState, List<String> keywords, boolean caseInsensitive) {
+        List<String> keys = new ArrayList<>();
+        List<int[]> keywordIds = new ArrayList<>();
+        long copiedKeyBytes = 0;
+        StringBuilder path = new StringBuilder();
+        // depth-first, keeping the path from the root in the string builder
+        State[] pending = new State[16];
+        char[] pendingCharacters = new char[16];
+        int size = 0;
+        pending[size++] = rootState;
+        while (size > 0) {
+            State state = pending[--size];
+            path.setLength(state.getDepth());
+            if (state.getDepth() > 0) {
+                path.setCharAt(state.getDepth() - 1, pendingCharacters[size]);
+            }
+            if (state.emit().length > 0) {
+                String keyword = keywords.get(state.emit()[0]);
+                if (keyword.contentEquals(path)) {
+                    keys.add(keyword);
+                } else {
+                    keys.add(path.toString());
+                    copiedKeyBytes += Transitions.OBJECT_OVERHEAD * 2 + path.length() * 2L;
+                }
+                keywordIds.add(state.emit());
+            }
+            for (char transition : state.getTransitionCharacters()) {
+                if (size == pending.length) {
+                    pending = Arrays.copyOf(pending, size * 2);
+                    pendingCharacters = Arrays.copyOf(pendingCharacters, size * 2);
+                }
+                pendingCharacters[size] = transition;
+                pending[size++] = state.nextStateIgnoreRootState(transition);
+            }
+        }
+        return new KeywordIndex(keys, keywordIds, caseInsensitive, copiedKeyBytes);
+    }
+
+    /**
+     * @param start the first character of the range
+     * @param end the character after the range
+     * @return the ids of the keywords spelled by the range, or null if it is not a keyword
+     */
+    int[] find(CharSequence text, int start, int end) {
+        int hash = 0;
+        for (int position = start; position < end; position++) {
+            hash = 31 * hash + character(text, position);
+        }
+        int mask = this.keys.length - 1;
+        String key;
+        for (int slot = spread(hash) & mask; (key = this.keys[slot]) != null; slot = (slot + 1) & mask) {
+            if (key.length() == end - start && matches(key, text, start)) {
+                return this.keywordIds[slot];
+            }
+        }
+        return null;
+    }
+
+    private boolean matches(String key, CharSequence text, int start) {
+        for (int index = 0; index < key.length(); index++) {
+            if (key.charAt(index) != character(text, start + index)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private char character(CharSequence text, int position) {
+        char character = text.charAt(position);
+        return this.caseInsensitive ? Character.toLowerCase(character) : character;
+    }
+
+    long footprint() {
+        return this.footprint;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+}
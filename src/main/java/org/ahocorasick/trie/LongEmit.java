@@ -0,0 +1,75 @@
+package org.ahocorasick.trie;
+
+import java.util.List;
+
+/**
+ * A match in a file, which may be larger than an int can address. The start and end are the offsets of the
+ * first and the last byte of the match; the offsets of its first and last character, as they would be in the
+ * decoded text, are kept alongside. A {@link MatcherSession} scans characters rather than bytes, so for its
+ * matches both pairs hold the character offsets.
+ */
+public class LongEmit {
+
+    private final long start;
+
+    private final long end;
+
+    private final long charStart;
+
+    private final long charEnd;
+
+    private final int keywordId;
+
+    /** the keyword table of the trie, used to resolve the keyword only when it is asked for */
+    private final List<String> keywords;
+
+    LongEmit(final long start, final long end, final long charStart, final long charEnd, final int keywordId,
+             final List<String> keywords) {
+        this.start = start;
+        this.end = end;
+        this.charStart = charStart;
+        this.charEnd = charEnd;
+        this.keywordId = keywordId;
+        this.keywords = keywords;
+    }
+
+    public long getStart() {
+        return this.start;
+    }
+
+    public long getEnd() {
+        return this.end;
+    }
+
+    public long getCharStart() {
+        return this.charStart;
+    }
+
+    public long getCharEnd() {
+        return this.charEnd;
+    }
+
+    /**
+     * @return the number of characters of the match
+     */
+    public long size() {
+        return this.charEnd - this.charStart + 1;
+    }
+
+    public String getKeyword() {
+        return this.keywords.get(this.keywordId);
+    }
+
+    /**
+     * @return the id of the keyword in the trie that produced this emit, see {@link Utf8Trie#getKeyword(int)}
+     */
+    public int getKeywordId() {
+        return this.keywordId;
+    }
+
+    @Override
+    public String toString() {
+        return this.start + ":" + this.end + "=" + getKeyword();
+    }
+
+}
@@ -0,0 +1,86 @@
+package org.ahocorasick.trie;
+
+import java.io.IOException;
+
+/**
+ * <p>
+ *     A {@link DfaAutomaton} which reads its transition table in place from a mapped trie file instead of
+ *     from a heap array. As the table is addressed by long positions, it may be larger than 2 GB in total.
+ * </p>
+ *
+ * <p>
+ *     The mapping cannot be serialized, so Java serialization of the trie fails; the file itself is the
+ *     serialized form.
+ * </p>
+ */
+final class MappedDfaAutomaton
+        implements Automaton {
+
+    private static final long serialVersionUID = -4713830952116542091L;
+
+    private static final int ROOT = 0;
+
+    private final Alphabet alphabet;
+
+    private final int width;
+
+    private final MappedIntArray transitions;
+
+    private final MappedIntArray output;
+
+    private final MappedIntArray outputs;
+
+    private final MappedIntArray dictionarySuffix;
+
+    private MappedDfaAutomaton(Alphabet alphabet, MappedIntArray transitions, MappedIntArray output,
+                               MappedIntArray outputs, MappedIntArray dictionarySuffix) {
+        this.alphabet = alphabet;
+        this.width = alphabet.size();
+        this.transitions = transitions;
+        this.output = output;
+        this.outputs = outputs;
+        this.dictionarySuffix = dictionarySuffix;
+    }
+
+    /**
+     * Maps the tables in the layout written by {@link DfaAutomaton#write(TrieFile.Output)}.
+     */
+    static MappedDfaAutomaton read(TrieFile.Input in) throws IOException {
+        Alphabet alphabet = Alphabet.read(in);
+        MappedIntArray transitions = in.mapInts();
+        MappedIntArray output = in.mapInts();
+        MappedIntArray outputs = in.mapInts();
+        MappedIntArray dictionarySuffix = in.mapInts();
+        if (output.length() == 0 || transitions.length() != (long) output.length() * alphabet.size() ||
+                dictionarySuffix.length() != output.length() || outputs.length() == 0 || outputs.get(0) != 0) {
+            throw new IOException("Corrupt DFA");
+        }
+        return new MappedDfaAutomaton(alphabet, transitions, output, outputs, dictionarySuffix);
+    }
+
+    @Override
+    public int getRootState() {
+        return ROOT;
+    }
+
+    @Override
+    public int nextState(int state, char character) {
+        return this.transitions.get(state * this.width + this.alphabet.code(character));
+    }
+
+    @Override
+    public int emitCount(int state) {
+        return this.outputs.get(this.output.get(state));
+    }
+
+    @Override
+    public int emit(int state, int index) {
+        return this.outputs.get(this.output.get(state) + 1 + index);
+    }
+
+    @Override
+    public int dictionarySuffix(int state) {
+        return this.dictionarySuffix.get(state);
+    }
+
+}
@@ -0,0 +1,107 @@
+package org.ahocorasick.trie;
+
+import java.io.IOException;
+
+/**
+ * <p>
+ *     A {@link DoubleArrayAutomaton} which reads its tables in place from a mapped trie file instead of from
+ *     heap arrays. Only the alphabet lives on the heap; the tables do not add to the heap size or to the
+ *     work of the garbage collector, and processes mapping the same file share its pages.
+ * </p>
+ *
+ * <p>
+ *     The mapping cannot be serialized, so Java serialization of the trie fails; the file itself is the
+ *     serialized form.
+ * </p>
+ */
+final class MappedDoubleArrayAutomaton
+        implements Automaton {
+
+    private static final long serialVersionUID = 8120365943874106132L;
+
+    private static final int ROOT = 0;
+
+    private final Alphabet alphabet;
+
+    private final MappedIntArray base;
+
+    private final MappedIntArray check;
+
+    private final MappedIntArray fail;
+
+    private final MappedIntArray output;
+
+    private final MappedIntArray outputs;
+
+    private final MappedIntArray dictionarySuffix;
+
+    private MappedDoubleArrayAutomaton(Alphabet alphabet, MappedIntArray base, MappedIntArray check,
+                                       MappedIntArray fail, MappedIntArray output, MappedIntArray outputs,
+                                       MappedIntArray dictionarySuffix) {
+        this.alphabet = alphabet;
+        this.base = base;
+        this.check = check;
+        this.fail = fail;
+        this.output = output;
+        this.outputs = outputs;
+        this.dictionarySuffix = dictionarySuffix;
+    }
+
+    /**
+     * Maps the tables in the layout written by {@link DoubleArrayAutomaton#write(TrieFile.Output)}.
+     */
+    static MappedDoubleArrayAutomaton read(TrieFile.Input in) throws IOException {
+        Alphabet alphabet = Alphabet.read(in);
+        MappedIntArray base = in.mapInts();
+        MappedIntArray check = in.mapInts();
+        MappedIntArray fail = in.mapInts();
+        MappedIntArray output = in.mapInts();
+        MappedIntArray outputs = in.mapInts();
+        MappedIntArray dictionarySuffix = in.mapInts();
+        int length = base.length();
+        if (length == 0 || check.length() != length || fail.length() != length || output.length() != length ||
+                dictionarySuffix.length() != length || outputs.length() == 0 || outputs.get(0) != 0) {
+            throw new IOException("Corrupt double array");
+        }
+        return new MappedDoubleArrayAutomaton(alphabet, base, check, fail, output, outputs, dictionarySuffix);
+    }
+
+    @Override
+    public int getRootState() {
+        return ROOT;
+    }
+
+    @Override
+    public int nextState(int state, char character) {
+        int code = this.alphabet.code(character);
+        if (code == 0) {
+            return ROOT;
+        }
+        while (true) {
+            int target = this.base.get(state) + code;
+            if (this.check.get(target) == state) {
+                return target;
+            }
+            if (state == ROOT) {
+                return ROOT;
+            }
+            state = this.fail.get(state);
+        }
+    }
+
+    @Override
+    public int emitCount(int state) {
+        return this.outputs.get(this.output.get(state));
+    }
+
+    @Override
+    public int emit(int state, int index) {
+        return this.outputs.get(this.output.get(state) + 1 + index);
+    }
+
+    @Override
+    public int dictionarySuffix(int state) {
+        return this.dictionarySuffix.get(state);
+    }
+
+}
@@ -0,0 +1,30 @@
+package org.ahocorasick.trie;
+
+/**
+ * An int array of the trie file format, read in place from a {@link SegmentedBuffer} rather than copied onto
+ * the heap.
+ */
+final class MappedIntArray {
+
+    private final SegmentedBuffer buffer;
+
+    /** the byte position of the first element */
+    private final long offset;
+
+    private final int length;
+
+    MappedIntArray(SegmentedBuffer buffer, long offset, int length) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    int get(int index) {
+        return this.buffer.getInt(this.offset + ((long) index << 2));
+    }
+
+    int length() {
+        return this.length;
+    }
+
+}
@@ -0,0 +1,248 @@
+package org.ahocorasick.trie;
+
+import org.ahocorasick.trie.handler.MatchHandler;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * <p>
+ *     The matches of a scan stored as columns: the starts, the ends and the keyword ids in three int arrays
+ *     which grow as needed. A buffer is filled by {@link Trie#parseTextInto(CharSequence, MatchBuffer)} or,
+ *     being a {@link MatchHandler}, by {@link Trie#parseText(CharSequence, MatchHandler)}. Clearing it keeps
+ *     the arrays, so a buffer which is reused from one scan to the next stops allocating once it has grown
+ *     to the largest result.
+ * </p>
+ *
+ * <p>
+ *     Sorting and removing overlaps work on the arrays in place and give the same order and the same
+ *     remaining matches as the {@link Emit} based methods. A buffer is not thread-safe.
+ * </p>
+ */
+public class MatchBuffer
+        implements MatchHandler {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private int[] starts;
+
+    private int[] ends;
+
+    private int[] keywordIds;
+
+    private int size = 0;
+
+    /** scratch space for sorting, reused from one sort to the next */
+    private long[] sortKeys = new long[0];
+
+    private int[] sortScratch = new int[0];
+
+    /** the positions covered by the matches kept so far while removing overlaps; empty between calls */
+    private final BitSet covered = new BitSet();
+
+    public MatchBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public MatchBuffer(int capacity) {
+        this.starts = new int[capacity];
+        this.ends = new int[capacity];
+        this.keywordIds = new int[capacity];
+    }
+
+    /**
+     * Appends the match.
+     *
+     * @return true, to continue the scan
+     */
+    @Override
+    public boolean onMatch(int start, int end, int keywordId) {
+        add(start, end, keywordId);
+        return true;
+    }
+
+    public void add(int start, int end, int keywordId) {
+        if (this.size == this.starts.length) {
+            int capacity = Math.max(DEFAULT_CAPACITY, this.size * 2);
+            this.starts = Arrays.copyOf(this.starts, capacity);
+            this.ends = Arrays.copyOf(this.ends, capacity);
+            this.keywordIds = Arrays.copyOf(this.keywordIds, capacity);
+        }
+        this.starts[this.size] = start;
+        this.ends[this.size] = end;
+        this.keywordIds[this.size] = keywordId;
+        this.size++;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * Removes all matches, keeping the arrays for reuse.
+     */
+    public void clear() {
+        this.size = 0;
+    }
+
+    public int getStart(int index) {
+        checkIndex(index);
+        return this.starts[index];
+    }
+
+    public int getEnd(int index) {
+        checkIndex(index);
+        return this.ends[index];
+    }
+
+    public int getKeywordId(int index) {
+        checkIndex(index);
+        return this.keywordIds[index];
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= this.size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + this.size);
+        }
+    }
+
+    /**
+     * Hands the matches to the handler in their current order, until it returns false.
+     *
+     * @return false if the handler stopped the iteration
+     */
+    public boolean forEach(MatchHandler matchHandler) {
+        for (int index = 0; index < this.size; index++) {
+            if (!matchHandler.onMatch(this.starts[index], this.ends[index], this.keywordIds[index])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sorts the matches on their start, keeping the order of matches which start at the same position.
+     */
+    public void sortByPosition() {
+        ensureSortCapacity();
+        for (int index = 0; index < this.size; index++) {
+            this.sortKeys[index] = (long) this.starts[index] << 32 | index;
+        }
+        sortAndPermute();
+    }
+
+    /**
+     * Sorts the matches on their size, longest first, then on their start, keeping the order of matches
+     * which are equal on both.
+     */
+    private void sortBySize() {
+        sortByPosition();
+        for (int index = 0; index < this.size; index++) {
+            long shortness = Integer.MAX_VALUE - (this.ends[index] - this.starts[index] + 1);
+            this.sortKeys[index] = shortness << 32 | index;
+        }
+        sortAndPermute();
+    }
+
+    private void ensureSortCapacity() {
+        if (this.sortKeys.length < this.size) {
+            this.sortKeys = new long[this.starts.length];
+            this.sortScratch = new int[this.starts.length];
+        }
+    }
+
+    /**
+     * Sorts the keys, whose low 32 bits are the index of a match, and moves the matches into their order.
+     */
+    private void sortAndPermute() {
+        Arrays.sort(this.sortKeys, 0, this.size);
+        permute(this.starts);
+        permute(this.ends);
+        permute(this.keywordIds);
+    }
+
+    private void permute(int[] column) {
+        for (int index = 0; index < this.size; index++) {
+            this.sortScratch[index] = column[(int) this.sortKeys[index]];
+        }
+        System.arraycopy(this.sortScratch, 0, column, 0, this.size);
+    }
+
+    /**
+     * Removes overlapping matches as {@link org.ahocorasick.interval.IntervalTree#removeOverlaps(java.util.List)}
+     * does: the longest matches, then the left-most, are kept first, and matches with the same start and end
+     * as a kept match are kept as well. Like the interval tree, which removes intervals by their offsets, only
+     * the first of several matches with the same offsets is removed when they overlap a kept match. The
+     * remaining matches are sorted on their start.
+     */
+    public void removeOverlaps() {
+        sortBySize();
+        int kept = 0;
+        int previousStart = -1;
+        int previousEnd = -1;
+        boolean previousCovers = false;
+        for (int index = 0; index < this.size; index++) {
+            int start = this.starts[index];
+            int end = this.ends[index];
+            boolean keep;
+            boolean covers;
+            if (start == previousStart && end == previousEnd) {
+                // sorting on size then start puts matches with the same offsets next to each other
+                keep = true;
+                covers = previousCovers;
+            } else {
+                int overlap = this.covered.nextSetBit(start);
+                keep = overlap == -1 || overlap > end;
+                covers = keep;
+                if (covers) {
+                    this.covered.set(start, end + 1);
+                }
+            }
+            if (keep) {
+                move(index, kept++);
+            }
+            previousStart = start;
+            previousEnd = end;
+            previousCovers = covers;
+        }
+        for (int index = 0; index < kept; index++) {
+            this.covered.clear(this.starts[index], this.ends[index] + 1);
+        }
+        this.size = kept;
+        sortByPosition();
+    }
+
+    /**
+     * Moves the match at index from to index to, overwriting the match there.
+     */
+    void move(int from, int to) {
+        this.starts[to] = this.starts[from];
+        this.ends[to] = this.ends[from];
+        this.keywordIds[to] = this.keywordIds[from];
+    }
+
+    /**
+     * Drops the matches from the size onwards.
+     */
+    void truncate(int size) {
+        this.size = size;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("[");
+        for (int index = 0; index < this.size; index++) {
+            if (index > 0) {
+                builder.append(", ");
+            }
+            builder.append(this.starts[index]).append(':').append(this.ends[index])
+                    .append('=').append(this.keywordIds[index]);
+        }
+        return builder.append(']').toString();
+    }
+
+}
@@ -0,0 +1,311 @@
+package org.ahocorasick.trie;
+
+import org.ahocorasick.trie.handler.EmitHandler;
+import org.ahocorasick.trie.handler.LongEmitHandler;
+import org.ahocorasick.trie.handler.MatchHandler;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ *     A scan of a text which arrives in pieces, created by {@link Trie#newSession(EmitHandler)}. The session
+ *     keeps the state of the automaton and the offset in the text from one {@link #feed(char[], int, int)} to
+ *     the next, so a keyword which spans two pieces is found, and hands every match to the handler as
+ *     {@link Trie#parseText(CharSequence, EmitHandler)} would for the whole text at once. The offsets of the
+ *     emits count from the start of the text.
+ * </p>
+ *
+ * <p>
+ *     A session only remembers as many of the most recent characters as the longest keyword has, so its
+ *     memory does not depend on the length of the text. As with the handler variant of parseText, the whole
+ *     word and overlap options are not applied. A session is not thread-safe; the trie can serve any number
+ *     of sessions at once.
+ * </p>
+ *
+ * <p>
+ *     The session counts the offsets as longs, so it can scan a stream of any length. Emits and match handlers
+ *     receive int offsets, though, so a session created with one of them fails with an
+ *     {@link IllegalStateException} on the character at position 2<sup>31</sup>; a session created by
+ *     {@link Trie#newSession(LongEmitHandler)} reports {@link LongEmit}s and has no such limit.
+ * </p>
+ *
+ * <p>
+ *     The trie also scans a whole text through a session when a character converter or dropping multiple
+ *     spaces may change its length, as the session maps the matches back to the text without a position for
+ *     every character.
+ * </p>
+ */
+public class MatcherSession {
+
+    private final Trie trie;
+
+    private final Automaton automaton;
+
+    private final TrieConfig trieConfig;
+
+    private final KeywordIndex keywordIndex;
+
+    /** folds the characters of the text as the keywords were folded; null if they are scanned as they are */
+    private final FoldingTable foldingTable;
+
+    /** receives the matches with int offsets; null if they go to the long emit handler */
+    private final MatchHandler matchHandler;
+
+    private final LongEmitHandler longEmitHandler;
+
+    /** the text position of each recent character fed into the automaton, by its index in the converted text */
+    private final long[] positions;
+
+    /** the most recent characters of the text, by their position, for a trie with a keyword index; or null */
+    private final char[] recentCharacters;
+
+    private final int mask;
+
+    private final CharSequence recentText = new RecentText();
+
+    /** the position of the first character of the recent text handed to the keyword index */
+    private long recentStart;
+
+    private int currentState;
+
+    /** the position in the text of the next character */
+    private long position = 0;
+
+    /** the index of the last character fed into the automaton, in the text as converted */
+    private long convertedIndex = -1;
+
+    /**
+     * the index in the converted text of the last character the current character converts into; matches
+     * ending within the conversion of a character are measured from there, as in Trie.storeEmits
+     */
+    private long conversionEnd = -1;
+
+    /** the converted character claimed by an earlier position, see {@link #feed(char)} */
+    private long claimedIndex = -1;
+
+    private long claimingPosition;
+
+    private char lastCharacter = '\0';
+
+    private boolean stopped = false;
+
+    MatcherSession(Trie trie, MatchHandler matchHandler) {
+        this(trie, matchHandler, null);
+    }
+
+    MatcherSession(Trie trie, LongEmitHandler longEmitHandler) {
+        this(trie, null, longEmitHandler);
+    }
+
+    private MatcherSession(Trie trie, MatchHandler matchHandler, LongEmitHandler longEmitHandler) {
+        this.trie = trie;
+        this.automaton = trie.getAutomaton();
+        this.trieConfig = trie.getTrieConfig();
+        this.keywordIndex = trie.getKeywordIndex();
+        this.foldingTable = this.trieConfig.getFoldingTable();
+        this.matchHandler = matchHandler;
+        this.longEmitHandler = longEmitHandler;
+        int size = Integer.highestOneBit(trie.getMaximumKeywordLength() * 2 - 1);
+        this.positions = new long[size];
+        this.recentCharacters = this.keywordIndex == null ? null : new char[size];
+        this.mask = size - 1;
+        this.currentState = this.automaton.getRootState();
+    }
+
+    /**
+     * Starts over at the beginning of a new text, reusing the buffers of the session.
+     */
+    void reset() {
+        Arrays.fill(this.positions, 0);
+        if (this.recentCharacters != null) {
+            Arrays.fill(this.recentCharacters, '\0');
+        }
+        this.currentState = this.automaton.getRootState();
+        this.position = 0;
+        this.convertedIndex = -1;
+        this.conversionEnd = -1;
+        this.claimedIndex = -1;
+        this.claimingPosition = 0;
+        this.lastCharacter = '\0';
+        this.stopped = false;
+    }
+
+    /**
+     * Scans the next piece of the text. Does nothing once the trie has stopped on a hit.
+     */
+    public void feed(char[] characters, int offset, int length) {
+        for (int index = offset; index < offset + length && !this.stopped; index++) {
+            feed(characters[index]);
+        }
+    }
+
+    public void feed(CharSequence text) {
+        for (int index = 0; index < text.length() && !this.stopped; index++) {
+            feed(text.charAt(index));
+        }
+    }
+
+    /**
+     * @return whether a keyword was emitted by a trie which stops on hit, or the handler asked to stop, after
+     *      which nothing more is scanned
+     */
+    public boolean isStopped() {
+        return this.stopped;
+    }
+
+    /**
+     * @return the number of characters of the text scanned so far
+     */
+    public long getPosition() {
+        return this.position;
+    }
+
+    /**
+     * Feeds the conversion of the character into the automaton. As in Trie.storeEmits, a match starts at
+     * the highest position whose conversion ends, counting the characters dropped as multiple spaces, at the
+     * first character of the match, and otherwise at the position whose conversion holds that character. A
+     * position whose dropped characters make its conversion end ahead of the converted text therefore
+     * claims the next converted character, unless that character's own position ends there as well.
+     */
+    private void feed(char character) {
+        if (this.matchHandler != null && this.position > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Cannot report matches beyond position " + Integer.MAX_VALUE +
+                    " with int offsets; create the session with a LongEmitHandler");
+        }
+        if (this.recentCharacters != null) {
+            this.recentCharacters[(int) (this.position & this.mask)] = character;
+        }
+        char folded = this.foldingTable == null ? character : this.foldingTable.fold(character);
+        char[] expansion = folded == FoldingTable.EXPANDED && this.foldingTable != null ?
+                this.foldingTable.expansion(character) : null;
+        if (expansion == null) {
+            this.conversionEnd = this.convertedIndex + 1;
+            parseCharacter(folded);
+        } else {
+            this.conversionEnd = this.convertedIndex + expansion.length;
+            for (char c : expansion) {
+                if (!this.stopped) {
+                    parseCharacter(c);
+                }
+            }
+        }
+        if (this.conversionEnd > this.convertedIndex) {
+            this.claimedIndex = this.conversionEnd;
+            this.claimingPosition = this.position;
+        } else if (this.conversionEnd >= 0) {
+            this.positions[(int) (this.conversionEnd & this.mask)] = this.position;
+        }
+        this.position++;
+    }
+
+    private void parseCharacter(char character) {
+        char previous = this.lastCharacter;
+        this.lastCharacter = character;
+        if (this.trieConfig.isTreatMultipleSpacesAsOneSpace() &&
+                Character.isWhitespace(previous) && Character.isWhitespace(character)) {
+            return;
+        }
+        this.convertedIndex++;
+        this.positions[(int) (this.convertedIndex & this.mask)] =
+                this.convertedIndex == this.claimedIndex && this.conversionEnd != this.convertedIndex ?
+                        this.claimingPosition : this.position;
+        this.currentState = this.automaton.nextState(this.currentState, character);
+        boolean emitted = this.keywordIndex == null ?
+                storeEmits(this.currentState) : storeIndexedEmits(this.currentState);
+        if (emitted && this.trieConfig.isStopOnHit()) {
+            this.stopped = true;
+        }
+    }
+
+    /**
+     * Emits the keywords of the state and of its dictionary suffixes, shortest keyword first. A match starts
+     * at the text position which produced its first converted character, or at the current position if that
+     * character is part of the current conversion. Stops the session if the handler asks to.
+     */
+    private boolean storeEmits(int state) {
+        boolean emitted = false;
+        int dictionarySuffix = this.automaton.dictionarySuffix(state);
+        if (dictionarySuffix != Automaton.NO_STATE) {
+            emitted = storeEmits(dictionarySuffix);
+            if (this.stopped) {
+                return emitted;
+            }
+        }
+        int emitCount = this.automaton.emitCount(state);
+        for (int index = 0; index < emitCount; index++) {
+            int keywordId = this.automaton.emit(state, index);
+            long startIndex = this.conversionEnd - this.trie.getKeyword(keywordId).length() + 1;
+            long start = startIndex > this.convertedIndex ?
+                    this.position : this.positions[(int) (startIndex & this.mask)];
+            emitted = true;
+            if (!report(start, keywordId)) {
+                this.stopped = true;
+                return true;
+            }
+        }
+        return emitted;
+    }
+
+    /**
+     * Looks the candidate lengths of a minimized automaton up in the keyword index, against the recent
+     * characters of the text.
+     */
+    private boolean storeIndexedEmits(int state) {
+        boolean emitted = false;
+        int emitCount = this.automaton.emitCount(state);
+        for (int index = 0; index < emitCount; index++) {
+            int length = this.automaton.emit(state, index);
+            long start = this.position - length + 1;
+            this.recentStart = start;
+            int[] keywordIds = start < 0 ? null : this.keywordIndex.find(this.recentText, 0, length);
+            if (keywordIds != null) {
+                emitted = true;
+                for (int keywordId : keywordIds) {
+                    if (!report(start, keywordId)) {
+                        this.stopped = true;
+                        return true;
+                    }
+                }
+            }
+        }
+        return emitted;
+    }
+
+    /**
+     * Hands the match, which ends at the current position, to the handler.
+     *
+     * @return false if the handler asked to stop
+     */
+    private boolean report(long start, int keywordId) {
+        if (this.matchHandler != null) {
+            return this.matchHandler.onMatch((int) start, (int) this.position, keywordId);
+        }
+        this.longEmitHandler.emit(new LongEmit(start, this.position, start, this.position, keywordId,
+                this.trie.getKeywords()));
+        return true;
+    }
+
+    /**
+     * The text from the recent start up to the current position, so that the keyword index can be handed
+     * int offsets however long the text is.
+     */
+    private final class RecentText
+            implements CharSequence {
+
+        @Override
+        public int length() {
+            return (int) (position - recentStart + 1);
+        }
+
+        @Override
+        public char charAt(int index) {
+            return recentCharacters[(int) ((recentStart + index) & mask)];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+}
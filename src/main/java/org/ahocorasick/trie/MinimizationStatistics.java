@@ -0,0 +1,75 @@
+package org.ahocorasick.trie;
+
+/**
+ * <p>
+ *     Describes what {@link Trie.TrieBuilder#minimize()} did to a trie: the number of states and the estimated
+ *     heap before and after merging equivalent states, and the time taken to construct the failure states
+ *     and to minimize.
+ * </p>
+ *
+ * <p>
+ *     The byte counts are estimates, assuming compressed pointers. Before minimization they cover the states
+ *     and their transitions, as in {@link TrieStatistics}; afterwards they cover the transition, failure and
+ *     output tables plus the index used to identify the matched keywords. The keyword table itself is
+ *     needed either way and is not included.
+ * </p>
+ */
+public class MinimizationStatistics {
+
+    private final int stateCountBefore;
+
+    private final long estimatedBytesBefore;
+
+    private final int stateCountAfter;
+
+    private final long estimatedBytesAfter;
+
+    private final long buildNanos;
+
+    private final long minimizeNanos;
+
+    MinimizationStatistics(int stateCountBefore, long estimatedBytesBefore, int stateCountAfter,
+                           long estimatedBytesAfter, long buildNanos, long minimizeNanos) {
+        this.stateCountBefore = stateCountBefore;
+        this.estimatedBytesBefore = estimatedBytesBefore;
+        this.stateCountAfter = stateCountAfter;
+        this.estimatedBytesAfter = estimatedBytesAfter;
+        this.buildNanos = buildNanos;
+        this.minimizeNanos = minimizeNanos;
+    }
+
+    public int getStateCountBefore() {
+        return this.stateCountBefore;
+    }
+
+    public long getEstimatedBytesBefore() {
+        return this.estimatedBytesBefore;
+    }
+
+    public int getStateCountAfter() {
+        return this.stateCountAfter;
+    }
+
+    public long getEstimatedBytesAfter() {
+        return this.estimatedBytesAfter;
+    }
+
+    /** time taken to construct the failure states of the unminimized trie */
+    public long getBuildNanos() {
+        return this.buildNanos;
+    }
+
+    /** time taken to merge the states and to index the keywords */
+    public long getMinimizeNanos() {
+        return this.minimizeNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "states=" + this.stateCountBefore + " -> " + this.stateCountAfter +
+                ", estimatedBytes=" + this.estimatedBytesBefore + " -> " + this.estimatedBytesAfter +
+                ", buildMillis=" + this.buildNanos / 1000000 +
+                ", minimizeMillis=" + this.minimizeNanos / 1000000;
+    }
+
+}
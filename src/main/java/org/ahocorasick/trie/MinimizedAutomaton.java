@@ -0,0 +1,295 @@
+package org.ahocorasick.trie;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ *     An automaton in which equivalent states of the trie have been merged, so that keywords sharing a tail
+ *     share its states. Two states are merged when they have the same failure state, both do or both do not
+ *     end a keyword (directly or through a dictionary suffix) and their transitions lead to merged states on
+ *     the same characters. As the goto function is a tree, this is decided bottom-up in a single pass, the
+ *     way a DAWG is built from a trie.
+ * </p>
+ *
+ * <p>
+ *     A merged state no longer stands for a single path from the root, so it cannot say which keyword ended.
+ *     Instead it holds the lengths of all keywords which can end in it, including those found through the
+ *     failure chain, shortest first. {@link #emit(int, int)} returns these lengths rather than keyword ids;
+ *     {@link Trie} looks the candidate ranges of the text up in a {@link KeywordIndex}. A range which is not a
+ *     keyword simply is not found, so the matches are exactly those of the unminimized trie.
+ * </p>
+ *
+ * <p>
+ *     The transitions are held in sorted arrays shared by all states, with every state referring to its own
+ *     range. There are no dictionary suffixes, as every state already lists the lengths of the whole chain.
+ * </p>
+ */
+final class MinimizedAutomaton
+        implements Automaton {
+
+    private static final long serialVersionUID = 1407352889645028137L;
+
+    private static final int ROOT = 0;
+
+    /** the transitions of state s are at firstTransition[s] up to firstTransition[s + 1] */
+    private final int[] firstTransition;
+
+    private final char[] transitionCharacters;
+
+    private final int[] transitionTargets;
+
+    private final int[] fail;
+
+    /** offsets into the emit table, which holds keyword lengths rather than keyword ids */
+    private final int[] output;
+
+    private final EmitTable outputs;
+
+    private MinimizedAutomaton(int[] firstTransition, char[] transitionCharacters, int[] transitionTargets,
+                               int[] fail, int[] output, EmitTable outputs) {
+        this.firstTransition = firstTransition;
+        this.transitionCharacters = transitionCharacters;
+        this.transitionTargets = transitionTargets;
+        this.fail = fail;
+        this.output = output;
+        this.outputs = outputs;
+    }
+
+    /**
+     * Merges the equivalent states of the state graph. The failure states must already have been constructed.
+     *
+     * @param states all states in breadth-first order, indexed by their id
+     */
+    static MinimizedAutomaton compile(List<State> states) {
+        int[] classOf = mergeStates(states);
+        int classCount = 0;
+        for (int stateClass : classOf) {
+            classCount = Math.max(classCount, stateClass + 1);
+        }
+
+        // every class takes its transitions and failure state from its first member in breadth-first order,
+        // and the union of the keyword lengths of all its members
+        int[] representative = new int[classCount];
+        Arrays.fill(representative, -1);
+        int[][] lengths = new int[classCount][];
+        int transitionCount = 0;
+        for (State state : states) {
+            int stateClass = classOf[state.getId()];
+            if (representative[stateClass] == -1) {
+                representative[stateClass] = state.getId();
+                transitionCount += state.getTransitionCharacters().length;
+            }
+            lengths[stateClass] = union(lengths[stateClass], keywordLengths(state));
+        }
+
+        int[] firstTransition = new int[classCount + 1];
+        char[] transitionCharacters = new char[transitionCount];
+        int[] transitionTargets = new int[transitionCount];
+        int[] fail = new int[classCount];
+        int[] output = new int[classCount];
+        EmitTable outputs = new EmitTable();
+        int transition = 0;
+        for (int stateClass = 0; stateClass < classCount; stateClass++) {
+            State state = states.get(representative[stateClass]);
+            firstTransition[stateClass] = transition;
+            char[] characters = state.getTransitionCharacters();
+            Arrays.sort(characters);
+            for (char character : characters) {
+                transitionCharacters[transition] = character;
+                transitionTargets[transition] = classOf[state.nextStateIgnoreRootState(character).getId()];
+                transition++;
+            }
+            fail[stateClass] = stateClass == ROOT ? ROOT : classOf[state.failure().getId()];
+            output[stateClass] = outputs.add(lengths[stateClass]);
+        }
+        firstTransition[classCount] = transition;
+        return new MinimizedAutomaton(firstTransition, transitionCharacters, transitionTargets, fail, output,
+                outputs.trim());
+    }
+
+    /**
+     * Assigns every state the number of its class of equivalent states, numbering the classes in the
+     * breadth-first order of their first member so that the root is class 0.
+     */
+    private static int[] mergeStates(List<State> states) {
+        int[] signatureClass = new int[states.size()];
+        Map<Signature, Integer> classes = new HashMap<>();
+        // deepest states first, so that the classes of the targets are known
+        for (int id = states.size() - 1; id >= 0; id--) {
+            State state = states.get(id);
+            char[] characters = state.getTransitionCharacters();
+            Arrays.sort(characters);
+            int[] key = new int[3 + characters.length * 2];
+            key[0] = state.failure() == null ? -1 : state.failure().getId();
+            key[1] = state.emit().length > 0 || state.dictionarySuffix() != null ? 1 : 0;
+            key[2] = characters.length;
+            for (int index = 0; index < characters.length; index++) {
+                key[3 + index * 2] = characters[index];
+                key[4 + index * 2] = signatureClass[state.nextStateIgnoreRootState(characters[index]).getId()];
+            }
+            Signature signature = new Signature(key);
+            Integer stateClass = classes.get(signature);
+            if (stateClass == null) {
+                stateClass = classes.size();
+                classes.put(signature, stateClass);
+            }
+            signatureClass[id] = stateClass;
+        }
+
+        int[] number = new int[classes.size()];
+        Arrays.fill(number, -1);
+        int next = 0;
+        int[] classOf = new int[states.size()];
+        for (int id = 0; id < states.size(); id++) {
+            if (number[signatureClass[id]] == -1) {
+                number[signatureClass[id]] = next++;
+            }
+            classOf[id] = number[signatureClass[id]];
+        }
+        return classOf;
+    }
+
+    /**
+     * @return the ascending lengths of the keywords ending in the state or in its dictionary suffixes
+     */
+    private static int[] keywordLengths(State state) {
+        int count = 0;
+        for (State suffix = state; suffix != null; suffix = suffix.dictionarySuffix()) {
+            if (suffix.emit().length > 0) {
+                count++;
+            }
+        }
+        int[] lengths = new int[count];
+        for (State suffix = state; suffix != null; suffix = suffix.dictionarySuffix()) {
+            if (suffix.emit().length > 0) {
+                lengths[--count] = suffix.getDepth();
+            }
+        }
+        return lengths;
+    }
+
+    /**
+     * Merges two ascending arrays without duplicates.
+     */
+    private static int[] union(int[] left, int[] right) {
+        if (left == null || Arrays.equals(left, right)) {
+            return right;
+        }
+        int[] union = new int[left.length + right.length];
+        int size = 0;
+        int leftIndex = 0;
+        int rightIndex = 0;
+        while (leftIndex < left.length || rightIndex < right.length) {
+            int value;
+            if (rightIndex == right.length || (leftIndex < left.length && left[leftIndex] < right[rightIndex])) {
+                value = left[leftIndex++];
+            } else if (leftIndex == left.length || right[rightIndex] < left[leftIndex]) {
+                value = right[rightIndex++];
+            } else {
+                value = left[leftIndex++];
+                rightIndex++;
+            }
+            union[size++] = value;
+        }
+        return Arrays.copyOf(union, size);
+    }
+
+    int getStateCount() {
+        return this.fail.length;
+    }
+
+    /**
+     * @return the estimated bytes taken by the tables
+     */
+    long footprint() {
+        return Transitions.OBJECT_OVERHEAD * 8L + this.firstTransition.length * 4L +
+                this.transitionCharacters.length * 2L + this.transitionTargets.length * 4L +
+                this.fail.length * 4L + this.output.length * 4L + this.outputs.footprint();
+    }
+
+    @Override
+    public int getRootState() {
+        return ROOT;
+    }
+
+    @Override
+    public int nextState(int state, char character) {
+        while (true) {
+            int target = transition(state, character);
+            if (target != NO_STATE) {
+                return target;
+            }
+            if (state == ROOT) {
+                return ROOT;
+            }
+            state = this.fail[state];
+        }
+    }
+
+    private int transition(int state, char character) {
+        int low = this.firstTransition[state];
+        int high = this.firstTransition[state + 1] - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            char key = this.transitionCharacters[middle];
+            if (key < character) {
+                low = middle + 1;
+            } else if (key > character) {
+                high = middle - 1;
+            } else {
+                return this.transitionTargets[middle];
+            }
+        }
+        return NO_STATE;
+    }
+
+    /**
+     * @return the number of candidate keyword lengths of the state
+     */
+    @Override
+    public int emitCount(int state) {
+        return this.outputs.count(this.output[state]);
+    }
+
+    /**
+     * @return a candidate keyword length, not a keyword id
+     */
+    @Override
+    public int emit(int state, int index) {
+        return this.outputs.get(this.output[state], index);
+    }
+
+    @Override
+    public int dictionarySuffix(int state) {
+        return NO_STATE;
+    }
+
+    /**
+     * The failure state, output flag and transitions of a state, compared by value.
+     */
+    private static final class Signature {
+
+        private final int[] key;
+
+        private final int hash;
+
+        private Signature(int[] key) {
+            this.key = key;
+            this.hash = Arrays.hashCode(key);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Signature && Arrays.equals(this.key, ((Signature) other).key);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+    }
+
+}
@@ -0,0 +1,259 @@
+package org.ahocorasick.trie;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * <p>
+ *     A compiled automaton which stores chains of single-transition states, typical of long keywords, as
+ *     labels rather than as separate nodes. The states of a chain are numbered consecutively, so the only
+ *     transition of chain state s leads to state s + 1 on the character label[s]: following a chain costs
+ *     one char comparison and needs no per-state transition structure at all. Only states with more than one
+ *     transition have their transitions in sorted arrays, shared by all states.
+ * </p>
+ *
+ * <p>
+ *     Every position in a chain remains a state of its own with a failure state, output and dictionary
+ *     suffix, as a failure transition may lead into the middle of a chain. On a mismatch the scan falls back
+ *     to the failure state exactly as for any other state.
+ * </p>
+ */
+final class RadixAutomaton
+        implements Automaton {
+
+    private static final long serialVersionUID = -3560134796219547012L;
+
+    private static final int ROOT = 0;
+
+    /** states with at most this many transitions are searched linearly */
+    private static final int MAX_LINEAR_SEARCH = 8;
+
+    /** one bit per state, set for the states of a chain, which have exactly one transition */
+    private final int[] chain;
+
+    /** the character of the transition of a chain state */
+    private final char[] label;
+
+    /** the transitions of a branching state s are at firstTransition[s] up to firstTransition[s + 1] */
+    private final int[] firstTransition;
+
+    private final char[] transitionCharacters;
+
+    private final int[] transitionTargets;
+
+    private final int[] fail;
+
+    private final int[] output;
+
+    private final EmitTable outputs;
+
+    private final int[] dictionarySuffix;
+
+    private RadixAutomaton(int[] chain, char[] label, int[] firstTransition, char[] transitionCharacters,
+                           int[] transitionTargets, int[] fail, int[] output, EmitTable outputs,
+                           int[] dictionarySuffix) {
+        this.chain = chain;
+        this.label = label;
+        this.firstTransition = firstTransition;
+        this.transitionCharacters = transitionCharacters;
+        this.transitionTargets = transitionTargets;
+        this.fail = fail;
+        this.output = output;
+        this.outputs = outputs;
+        this.dictionarySuffix = dictionarySuffix;
+    }
+
+    /**
+     * Compiles the state graph. The failure states must already have been constructed.
+     *
+     * @param states all states, indexed by their id
+     */
+    static RadixAutomaton compile(List<State> states) {
+        // number the states chain by chain, taking the heads of the chains in breadth-first order
+        State[] order = new State[states.size()];
+        int[] idOf = new int[states.size()];
+        int next = 0;
+        int transitionCount = 0;
+        Queue<State> heads = new ArrayDeque<>();
+        heads.add(states.get(ROOT));
+        while (!heads.isEmpty()) {
+            State state = heads.remove();
+            while (true) {
+                idOf[state.getId()] = next;
+                order[next++] = state;
+                char[] characters = state.getTransitionCharacters();
+                if (characters.length == 1) {
+                    state = state.nextStateIgnoreRootState(characters[0]);
+                    continue;
+                }
+                Arrays.sort(characters);
+                for (char character : characters) {
+                    heads.add(state.nextStateIgnoreRootState(character));
+                }
+                transitionCount += characters.length;
+                break;
+            }
+        }
+
+        int[] chain = new int[(order.length + 31) >>> 5];
+        char[] label = new char[order.length];
+        int[] firstTransition = new int[order.length + 1];
+        char[] transitionCharacters = new char[transitionCount];
+        int[] transitionTargets = new int[transitionCount];
+        int[] fail = new int[order.length];
+        int[] output = new int[order.length];
+        EmitTable outputs = new EmitTable();
+        int[] dictionarySuffix = new int[order.length];
+        int transition = 0;
+        for (int id = 0; id < order.length; id++) {
+            State state = order[id];
+            firstTransition[id] = transition;
+            char[] characters = state.getTransitionCharacters();
+            if (characters.length == 1) {
+                chain[id >>> 5] |= 1 << id;
+                label[id] = characters[0];
+            } else {
+                Arrays.sort(characters);
+                for (char character : characters) {
+                    transitionCharacters[transition] = character;
+                    transitionTargets[transition] = idOf[state.nextStateIgnoreRootState(character).getId()];
+                    transition++;
+                }
+            }
+            fail[id] = id == ROOT ? ROOT : idOf[state.failure().getId()];
+            output[id] = outputs.add(state.emit());
+            dictionarySuffix[id] = state.dictionarySuffix() == null ?
+                    NO_STATE : idOf[state.dictionarySuffix().getId()];
+        }
+        firstTransition[order.length] = transition;
+        return new RadixAutomaton(chain, label, firstTransition, transitionCharacters, transitionTargets, fail,
+                output, outputs.trim(), dictionarySuffix);
+    }
+
+    /**
+     * Writes the chain bits and labels, the transition arrays, then the fail and output arrays, the emit
+     * table and the dictionary suffixes.
+     */
+    void write(TrieFile.Output out) throws IOException {
+        out.writeInts(this.chain);
+        out.writeChars(this.label);
+        out.writeInts(this.firstTransition);
+        out.writeChars(this.transitionCharacters);
+        out.writeInts(this.transitionTargets);
+        out.writeInts(this.fail);
+        out.writeInts(this.output);
+        this.outputs.write(out);
+        out.writeInts(this.dictionarySuffix);
+    }
+
+    static RadixAutomaton read(TrieFile.Input in) throws IOException {
+        int[] chain = in.readInts();
+        char[] label = in.readChars();
+        int[] firstTransition = in.readInts();
+        char[] transitionCharacters = in.readChars();
+        int[] transitionTargets = in.readInts();
+        int[] fail = in.readInts();
+        int[] output = in.readInts();
+        EmitTable outputs = EmitTable.read(in);
+        int[] dictionarySuffix = in.readInts();
+        int length = fail.length;
+        if (length == 0 || label == null || transitionCharacters == null || label.length != length ||
+                chain.length != (length + 31) >>> 5 || firstTransition.length != length + 1 ||
+                transitionTargets.length != transitionCharacters.length || output.length != length ||
+                dictionarySuffix.length != length) {
+            throw new IOException("Corrupt radix automaton");
+        }
+        return new RadixAutomaton(chain, label, firstTransition, transitionCharacters, transitionTargets, fail,
+                output, outputs, dictionarySuffix);
+    }
+
+    @Override
+    public int getRootState() {
+        return ROOT;
+    }
+
+    @Override
+    public int nextState(int state, char character) {
+        while (true) {
+            if ((this.chain[state >>> 5] & (1 << state)) != 0) {
+                if (this.label[state] == character) {
+                    return state + 1;
+                }
+            } else {
+                int target = branch(state, character);
+                if (target != NO_STATE) {
+                    return target;
+                }
+            }
+            if (state == ROOT) {
+                return ROOT;
+            }
+            state = this.fail[state];
+        }
+    }
+
+    private int branch(int state, char character) {
+        int low = this.firstTransition[state];
+        int high = this.firstTransition[state + 1] - 1;
+        if (high - low < MAX_LINEAR_SEARCH) {
+            for (int index = low; index <= high; index++) {
+                if (this.transitionCharacters[index] == character) {
+                    return this.transitionTargets[index];
+                }
+            }
+            return NO_STATE;
+        }
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            char key = this.transitionCharacters[middle];
+            if (key < character) {
+                low = middle + 1;
+            } else if (key > character) {
+                high = middle - 1;
+            } else {
+                return this.transitionTargets[middle];
+            }
+        }
+        return NO_STATE;
+    }
+
+    @Override
+    public int emitCount(int state) {
+        return this.outputs.count(this.output[state]);
+    }
+
+    @Override
+    public int emit(int state, int index) {
+        return this.outputs.get(this.output[state], index);
+    }
+
+    @Override
+    public int dictionarySuffix(int state) {
+        return this.dictionarySuffix[state];
+    }
+
+    /**
+     * @return the number of states which are part of a chain
+     */
+    int getChainStateCount() {
+        int count = 0;
+        for (int bits : this.chain) {
+            count += Integer.bitCount(bits);
+        }
+        return count;
+    }
+
+    /**
+     * @return the estimated bytes taken by the tables
+     */
+    long footprint() {
+        return Transitions.OBJECT_OVERHEAD * 9L + this.chain.length * 4L + this.label.length * 2L +
+                this.firstTransition.length * 4L + this.transitionCharacters.length * 2L +
+                this.transitionTargets.length * 4L + this.fail.length * 4L + this.output.length * 4L +
+                this.outputs.footprint() + this.dictionarySuffix.length * 4L;
+    }
+
+}
@@ -0,0 +1,116 @@
+package org.ahocorasick.trie;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * <p>
+ *     A read-only view of a file, or of a heap buffer, addressed by long byte positions. A single
+ *     {@link ByteBuffer} cannot exceed 2 GB, so a file is mapped as a series of segments of equal, power of
+ *     two size. Ints and chars are aligned to their own size in the trie file format, so they never straddle
+ *     two segments.
+ * </p>
+ *
+ * <p>
+ *     The segments are mapped read-only: processes which map the same file share its pages in the operating
+ *     system's page cache, and the data never occupies the Java heap.
+ * </p>
+ */
+final class SegmentedBuffer {
+
+    /** 1 GB segments */
+    static final int SEGMENT_BITS = 30;
+
+    private final ByteBuffer[] segments;
+
+    private final int segmentBits;
+
+    private final long segmentMask;
+
+    private final long size;
+
+    private SegmentedBuffer(ByteBuffer[] segments, int segmentBits, long size) {
+        this.segments = segments;
+        this.segmentBits = segmentBits;
+        this.segmentMask = (1L << segmentBits) - 1;
+        this.size = size;
+    }
+
+    /**
+     * Maps the whole file read-only.
+     *
+     * @param segmentBits the log2 of the segment size, at least 3
+     */
+    static SegmentedBuffer map(FileChannel channel, int segmentBits) throws IOException {
+        long size = channel.size();
+        long segmentSize = 1L << segmentBits;
+        ByteBuffer[] segments = new ByteBuffer[(int) ((size + segmentSize - 1) >>> segmentBits)];
+        for (int index = 0; index < segments.length; index++) {
+            long start = (long) index << segmentBits;
+            segments[index] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(segmentSize, size - start));
+        }
+        return new SegmentedBuffer(segments, segmentBits, size);
+    }
+
+    /**
+     * Wraps a buffer holding the whole file.
+     */
+    static SegmentedBuffer wrap(ByteBuffer buffer) {
+        return new SegmentedBuffer(new ByteBuffer[] { buffer.slice() }, SEGMENT_BITS, buffer.remaining());
+    }
+
+    long size() {
+        return this.size;
+    }
+
+    int getInt(long position) {
+        return this.segments[(int) (position >>> this.segmentBits)].getInt((int) (position & this.segmentMask));
+    }
+
+    /**
+     * Copies ints starting at the given position, one bulk copy per segment.
+     */
+    void getInts(long position, int[] destination) {
+        int index = 0;
+        while (index < destination.length) {
+            ByteBuffer segment = segmentAt(position);
+            int count = Math.min(destination.length - index, segment.remaining() / 4);
+            segment.asIntBuffer().get(destination, index, count);
+            index += count;
+            position += count * 4L;
+        }
+    }
+
+    void getChars(long position, char[] destination) {
+        int index = 0;
+        while (index < destination.length) {
+            ByteBuffer segment = segmentAt(position);
+            int count = Math.min(destination.length - index, segment.remaining() / 2);
+            segment.asCharBuffer().get(destination, index, count);
+            index += count;
+            position += count * 2L;
+        }
+    }
+
+    void getBytes(long position, byte[] destination, int offset, int length) {
+        while (length > 0) {
+            ByteBuffer segment = segmentAt(position);
+            int count = Math.min(length, segment.remaining());
+            segment.get(destination, offset, count);
+            offset += count;
+            length -= count;
+            position += count;
+        }
+    }
+
+    /**
+     * @return an independent buffer over the rest of the segment holding the given position
+     */
+    private ByteBuffer segmentAt(long position) {
+        ByteBuffer segment = this.segments[(int) (position >>> this.segmentBits)].duplicate();
+        segment.position((int) (position & this.segmentMask));
+        return segment;
+    }
+
+}
@@ -14,6 +14,8 @@ import java.util.*;
  *         state with less depth</li>
  *     <li>emits; when this state is passed and keywords have been matched, the matches must be
  *         'emitted' so that they can be used later on.</li>
+ *     <li>dictionary suffix; the nearest state on the failure chain which has emits of its own, so that
+ *         the emits of shorter keywords are found without copying them into this state.</li>
  * </ul>
  *
  * <p>
@@ -29,6 +31,8 @@ public class State
 
     private static final long serialVersionUID = -7391073787286297822L;
 
+    private static final int[] NO_EMITS = new int[0];
+
     /** effective the size of the keyword */
     private final int depth;
 
@@ -37,15 +41,31 @@ public class State
 
     /**
      * referred to in the white paper as the 'goto' structure. From a state it is possible to go
-     * to other states, depending on the character passed.
+     * to other states, depending on the character passed. Only used when there is more than one
+     * transition; see {@link Transitions} for the representations.
      */
-    private Map<Character,State> success = new HashMap<Character, State>();
+    private Transitions success = null;
+
+    /** the character of the only transition, for the many states which have exactly one */
+    private char singleCharacter;
+
+    /** the state of the only transition, null if there is none or more than one */
+    private State singleState = null;
 
     /** if no matching states are found, the failure state will be returned */
     private State failure = null;
 
-    /** whenever this state is reached, it will emit the matches keywords for future reference */
-    private Set<String> emits = null;
+    /** whenever this state is reached, it will emit the ids of the matched keywords for future reference */
+    private int[] emits = NO_EMITS;
+
+    /**
+     * the nearest state on the failure chain which emits keywords, so that the keywords of the failure
+     * chain need not be copied into every state. Null if no state on the chain emits anything.
+     */
+    private State dictionarySuffix = null;
+
+    /** breadth-first number of this state, assigned when the failure states are constructed */
+    private int id;
 
     public State() {
         this(0);
@@ -56,50 +76,151 @@ public class State
         this.rootState = depth == 0 ? this : null;
     }
 
-    private State nextState(Character character, boolean ignoreRootState) {
-        State nextState = this.success.get(character);
+    private State nextState(char character, boolean ignoreRootState) {
+        State nextState = null;
+        if (this.singleState != null) {
+            if (this.singleCharacter == character) {
+                nextState = this.singleState;
+            }
+        } else if (this.success != null) {
+            nextState = this.success.get(character);
+        }
         if (!ignoreRootState && nextState == null && this.rootState != null) {
             nextState = this.rootState;
         }
         return nextState;
     }
 
-    public State nextState(Character character) {
+    public State nextState(char character) {
         return nextState(character, false);
     }
 
-    public State nextStateIgnoreRootState(Character character) {
+    public State nextState(Character character) {
+        return nextState(character.charValue(), false);
+    }
+
+    public State nextStateIgnoreRootState(char character) {
         return nextState(character, true);
     }
 
-    public State addState(Character character) {
+    public State nextStateIgnoreRootState(Character character) {
+        return nextState(character.charValue(), true);
+    }
+
+    public State addState(char character) {
         State nextState = nextStateIgnoreRootState(character);
         if (nextState == null) {
             nextState = new State(this.depth+1);
-            this.success.put(character, nextState);
+            if (this.singleState == null && this.success == null) {
+                this.singleCharacter = character;
+                this.singleState = nextState;
+            } else {
+                CharStateMap map = this.success == null ? new CharStateMap() : this.success.toMap();
+                if (this.singleState != null) {
+                    map.put(this.singleCharacter, this.singleState);
+                    this.singleState = null;
+                }
+                map.put(character, nextState);
+                this.success = map;
+            }
         }
         return nextState;
     }
 
+    public State addState(Character character) {
+        return addState(character.charValue());
+    }
+
+    /**
+     * Removes the transition on the given character, falling back to the inline representation when a
+     * single transition remains.
+     *
+     * @return the state the transition led to, or null if there was none
+     */
+    State removeState(char character) {
+        if (this.singleState != null) {
+            if (this.singleCharacter != character) {
+                return null;
+            }
+            State removed = this.singleState;
+            this.singleState = null;
+            return removed;
+        }
+        if (this.success == null) {
+            return null;
+        }
+        CharStateMap map = this.success.toMap();
+        State removed = map.remove(character);
+        if (map.size() == 1) {
+            this.singleCharacter = map.keys()[0];
+            this.singleState = map.values()[0];
+            this.success = null;
+        } else {
+            this.success = map.size() == 0 ? null : map;
+        }
+        return removed;
+    }
+
+    /**
+     * @return true if this state has at least one transition
+     */
+    boolean hasTransitions() {
+        return this.singleState != null || this.success != null;
+    }
+
     public int getDepth() {
         return this.depth;
     }
 
-    public void addEmit(String keyword) {
-        if (this.emits == null) {
-            this.emits = new TreeSet<>();
+    int getId() {
+        return this.id;
+    }
+
+    void setId(int id) {
+        this.id = id;
+    }
+
+    public void addEmit(int keywordId) {
+        for (int emit : this.emits) {
+            if (emit == keywordId) {
+                return;
+            }
         }
-        this.emits.add(keyword);
+        this.emits = Arrays.copyOf(this.emits, this.emits.length + 1);
+        this.emits[this.emits.length - 1] = keywordId;
     }
 
-    public void addEmit(Collection<String> emits) {
-        for (String emit : emits) {
-            addEmit(emit);
+    /**
+     * @return true if the keyword was emitted by this state
+     */
+    boolean removeEmit(int keywordId) {
+        for (int index = 0; index < this.emits.length; index++) {
+            if (this.emits[index] == keywordId) {
+                int[] emits = this.emits.length == 1 ? NO_EMITS : new int[this.emits.length - 1];
+                System.arraycopy(this.emits, 0, emits, 0, index);
+                System.arraycopy(this.emits, index + 1, emits, index, emits.length - index);
+                this.emits = emits;
+                return true;
+            }
         }
+        return false;
     }
 
-    public Collection<String> emit() {
-        return this.emits == null ? Collections.<String> emptyList() : this.emits;
+    /**
+     * @return the ids of the keywords ending in this state; the array must not be modified. Keywords which
+     *      end in a state on the failure chain are not included; they are found by following
+     *      {@link #dictionarySuffix()}.
+     */
+    public int[] emit() {
+        return this.emits;
+    }
+
+    public State dictionarySuffix() {
+        return this.dictionarySuffix;
+    }
+
+    public void setDictionarySuffix(State dictionarySuffix) {
+        this.dictionarySuffix = dictionarySuffix;
     }
 
     public State failure() {
@@ -111,11 +232,52 @@ public class State
     }
 
     public Collection<State> getStates() {
-        return this.success.values();
+        if (this.singleState != null) {
+            return Collections.singletonList(this.singleState);
+        }
+        return this.success == null ? Collections.<State>emptyList() : Arrays.asList(this.success.values());
     }
 
     public Collection<Character> getTransitions() {
-        return this.success.keySet();
+        char[] transitionCharacters = getTransitionCharacters();
+        List<Character> transitions = new ArrayList<>(transitionCharacters.length);
+        for (char transition : transitionCharacters) {
+            transitions.add(transition);
+        }
+        return transitions;
+    }
+
+    /**
+     * @return the characters this state has a transition on, without boxing them
+     */
+    public char[] getTransitionCharacters() {
+        if (this.singleState != null) {
+            return new char[] { this.singleCharacter };
+        }
+        return this.success == null ? new char[0] : this.success.keys();
+    }
+
+    /**
+     * Replaces the transition map, which is tuned for adding transitions, by the representation
+     * which best fits the fan-out of this state. Adding a transition afterwards is still possible.
+     */
+    void compactTransitions() {
+        if (this.success != null) {
+            this.success = this.success.compact(this.depth == 0);
+        }
+    }
+
+    /**
+     * Adds the representation of this state's transitions to the statistics.
+     */
+    void addTo(TrieStatistics statistics) {
+        if (this.singleState != null) {
+            statistics.addSingle();
+        } else if (this.success == null) {
+            statistics.addLeaf();
+        } else {
+            statistics.add(this.success);
+        }
     }
 
 }
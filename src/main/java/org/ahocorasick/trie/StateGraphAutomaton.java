@@ -0,0 +1,63 @@
+package org.ahocorasick.trie;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs the automaton directly over the {@link State} object graph, addressing each state by the id it
+ * was given when the failure states were constructed.
+ */
+final class StateGraphAutomaton
+        implements Automaton {
+
+    private static final long serialVersionUID = 4963284937405671802L;
+
+    private final State[] states;
+
+    /**
+     * @param states all states, indexed by their id; the root state must have id 0
+     */
+    StateGraphAutomaton(List<State> states) {
+        this.states = states.toArray(new State[states.size()]);
+    }
+
+    /**
+     * @return all states, indexed by their id
+     */
+    List<State> getStates() {
+        return Arrays.asList(this.states);
+    }
+
+    @Override
+    public int getRootState() {
+        return 0;
+    }
+
+    @Override
+    public int nextState(int state, char character) {
+        State currentState = this.states[state];
+        State newCurrentState = currentState.nextState(character);
+        while (newCurrentState == null) {
+            currentState = currentState.failure();
+            newCurrentState = currentState.nextState(character);
+        }
+        return newCurrentState.getId();
+    }
+
+    @Override
+    public int emitCount(int state) {
+        return this.states[state].emit().length;
+    }
+
+    @Override
+    public int emit(int state, int index) {
+        return this.states[state].emit()[index];
+    }
+
+    @Override
+    public int dictionarySuffix(int state) {
+        State dictionarySuffix = this.states[state].dictionarySuffix();
+        return dictionarySuffix == null ? NO_STATE : dictionarySuffix.getId();
+    }
+
+}
@@ -0,0 +1,241 @@
+package org.ahocorasick.trie;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * <p>
+ *     The 'goto' structure of a {@link State} with more than one outgoing transition. While keywords are
+ *     added the transitions live in a {@link CharStateMap}; once the trie is built, {@link #compact(boolean)}
+ *     picks the representation that best fits the fan-out of the state:
+ * </p>
+ *
+ * <ul>
+ *     <li>{@link DirectTransitions}; a table indexed by character, for the root and other dense states</li>
+ *     <li>{@link SortedTransitions}; sorted parallel arrays, searched linearly or binary, for mid-size states</li>
+ *     <li>{@link CharStateMap}; the hash map is kept for wide, sparse states</li>
+ * </ul>
+ *
+ * <p>
+ *     States with a single transition do not use this class at all, but hold their transition inline.
+ * </p>
+ */
+abstract class Transitions
+        implements Serializable {
+
+    private static final long serialVersionUID = -4637318207946613720L;
+
+    /** states with at most this many transitions are stored as sorted arrays, unless they are dense */
+    static final int MAX_SORTED_SIZE = 32;
+
+    /** a table is used when at least one in this many of the characters in its range has a transition */
+    static final int MAX_DIRECT_SPREAD = 2;
+
+    /** the root state is passed on every failure, so it may use a sparser table */
+    static final int MAX_ROOT_DIRECT_SPREAD = 16;
+
+    /** approximate size of an object header plus alignment, used for the footprint estimates */
+    static final int OBJECT_OVERHEAD = 16;
+
+    /** approximate size of a reference, assuming compressed pointers */
+    static final int REFERENCE_SIZE = 4;
+
+    abstract State get(char character);
+
+    abstract int size();
+
+    /**
+     * @return the characters there is a transition on
+     */
+    abstract char[] keys();
+
+    /**
+     * @return the states the transitions lead to, in the same order as {@link #keys()}
+     */
+    abstract State[] values();
+
+    /**
+     * @return the approximate number of bytes used by this representation
+     */
+    abstract long footprint();
+
+    /**
+     * @return a mutable copy of the transitions, so that new ones can be added
+     */
+    CharStateMap toMap() {
+        CharStateMap map = new CharStateMap();
+        char[] keys = keys();
+        State[] values = values();
+        for (int index = 0; index < keys.length; index++) {
+            map.put(keys[index], values[index]);
+        }
+        return map;
+    }
+
+    /**
+     * Chooses the representation with the best lookup cost and footprint for these transitions.
+     *
+     * @param root whether these are the transitions of the root state
+     */
+    Transitions compact(boolean root) {
+        char[] keys = keys();
+        State[] values = values();
+        sort(keys, values);
+        int span = keys[keys.length - 1] - keys[0] + 1;
+        if (span <= (root ? MAX_ROOT_DIRECT_SPREAD : MAX_DIRECT_SPREAD) * keys.length) {
+            return new DirectTransitions(keys, values);
+        }
+        if (keys.length <= MAX_SORTED_SIZE) {
+            return new SortedTransitions(keys, values);
+        }
+        return this;
+    }
+
+    private static void sort(char[] keys, State[] values) {
+        // insertion sort on the keys, keeping the values aligned; most states have only a few transitions
+        for (int index = 1; index < keys.length; index++) {
+            char key = keys[index];
+            State value = values[index];
+            int position = index - 1;
+            while (position >= 0 && keys[position] > key) {
+                keys[position + 1] = keys[position];
+                values[position + 1] = values[position];
+                position--;
+            }
+            keys[position + 1] = key;
+            values[position + 1] = value;
+        }
+    }
+
+    /**
+     * Transitions held in a table indexed by the character minus the lowest character.
+     */
+    static final class DirectTransitions
+            extends Transitions {
+
+        private static final long serialVersionUID = 8047396517462809138L;
+
+        private final char offset;
+
+        private final State[] table;
+
+        private final int size;
+
+        private DirectTransitions(char[] sortedKeys, State[] values) {
+            this.offset = sortedKeys[0];
+            this.table = new State[sortedKeys[sortedKeys.length - 1] - this.offset + 1];
+            for (int index = 0; index < sortedKeys.length; index++) {
+                this.table[sortedKeys[index] - this.offset] = values[index];
+            }
+            this.size = sortedKeys.length;
+        }
+
+        @Override
+        State get(char character) {
+            int index = character - this.offset;
+            return index >= 0 && index < this.table.length ? this.table[index] : null;
+        }
+
+        @Override
+        int size() {
+            return this.size;
+        }
+
+        @Override
+        char[] keys() {
+            char[] keys = new char[this.size];
+            int position = 0;
+            for (int index = 0; index < this.table.length; index++) {
+                if (this.table[index] != null) {
+                    keys[position++] = (char) (this.offset + index);
+                }
+            }
+            return keys;
+        }
+
+        @Override
+        State[] values() {
+            State[] values = new State[this.size];
+            int position = 0;
+            for (State value : this.table) {
+                if (value != null) {
+                    values[position++] = value;
+                }
+            }
+            return values;
+        }
+
+        @Override
+        long footprint() {
+            return OBJECT_OVERHEAD * 2 + (long) this.table.length * REFERENCE_SIZE;
+        }
+
+        @Override
+        Transitions compact(boolean root) {
+            return this;
+        }
+
+    }
+
+    /**
+     * Transitions held in sorted parallel arrays. Small arrays are searched linearly, larger ones binary.
+     */
+    static final class SortedTransitions
+            extends Transitions {
+
+        private static final long serialVersionUID = -1804635173947260481L;
+
+        /** up to this many keys a linear scan beats a binary search */
+        private static final int MAX_LINEAR_SEARCH = 8;
+
+        private final char[] keys;
+
+        private final State[] values;
+
+        private SortedTransitions(char[] sortedKeys, State[] values) {
+            this.keys = sortedKeys;
+            this.values = values;
+        }
+
+        @Override
+        State get(char character) {
+            if (this.keys.length <= MAX_LINEAR_SEARCH) {
+                for (int index = 0; index < this.keys.length; index++) {
+                    if (this.keys[index] >= character) {
+                        return this.keys[index] == character ? this.values[index] : null;
+                    }
+                }
+                return null;
+            }
+            int index = Arrays.binarySearch(this.keys, character);
+            return index >= 0 ? this.values[index] : null;
+        }
+
+        @Override
+        int size() {
+            return this.keys.length;
+        }
+
+        @Override
+        char[] keys() {
+            return this.keys.clone();
+        }
+
+        @Override
+        State[] values() {
+            return this.values.clone();
+        }
+
+        @Override
+        long footprint() {
+            return OBJECT_OVERHEAD * 3 + this.keys.length * 2L + this.values.length * (long) REFERENCE_SIZE;
+        }
+
+        @Override
+        Transitions compact(boolean root) {
+            return this;
+        }
+
+    }
+
+}
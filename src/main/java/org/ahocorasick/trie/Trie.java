@@ -5,17 +5,40 @@ import org.ahocorasick.interval.Intervalable;
 import org.ahocorasick.text.CharacterConverter;
 import org.ahocorasick.trie.handler.DefaultEmitHandler;
 import org.ahocorasick.trie.handler.EmitHandler;
+import org.ahocorasick.trie.handler.LongEmitHandler;
+import org.ahocorasick.trie.handler.MatchHandler;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
 import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Queue;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 /**
  * Based on the Aho-Corasick white paper, Bell technologies: http://cr.yp.to/bib/1975/aho.pdf
  *
+ * A Trie is created by a {@link TrieBuilder} and is immutable from then on: all of its fields are final,
+ * apart from a value computed from them when it is first needed, and none of its state can be reached from
+ * outside. A single Trie can therefore be shared by any number
+ * of threads, which may scan concurrently without synchronization.
+ *
  * @author Robert Bor
  */
 public class Trie
@@ -23,27 +46,63 @@ public class Trie
 
     private static final long serialVersionUID = -7602746174340365455L;
 
-    private TrieConfig trieConfig;
+    /** returned by storeEmits instead of the number of emits when the handler asked to stop */
+    private static final int STOPPED = -1;
+
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    /** smaller chunks of text are not worth scanning in a task of their own */
+    private static final int MIN_CHUNK_SIZE = 1 << 16;
+
+    private final TrieConfig trieConfig;
+
+    private final Automaton automaton;
+
+    /** every distinct keyword, stored once and indexed by its keyword id */
+    private final List<String> keywords;
+
+    /**
+     * finds the keywords by the text they match, for a {@link MinimizedAutomaton} which emits keyword
+     * lengths; null for all other automata, which emit keyword ids
+     */
+    private final KeywordIndex keywordIndex;
+
+    /** the length of the longest keyword, or 0 until it is first needed */
+    private transient int maximumKeywordLength;
 
-    private State rootState;
+    /**
+     * @param keywords the keyword table, which is used as is; the builder passes an unmodifiable copy
+     */
+    Trie(TrieConfig trieConfig, Automaton automaton, List<String> keywords) {
+        this(trieConfig, automaton, keywords, null);
+    }
 
-    private Trie(TrieConfig trieConfig) {
+    Trie(TrieConfig trieConfig, Automaton automaton, List<String> keywords, KeywordIndex keywordIndex) {
         this.trieConfig = trieConfig;
-        this.rootState = new State();
+        this.automaton = automaton;
+        this.keywords = keywords;
+        this.keywordIndex = keywordIndex;
     }
 
-    private void addKeyword(String keyword) {
-        if (keyword == null || keyword.length() == 0) {
-            return;
-        }
-        State currentState = this.rootState;
-        for (Character character : keyword.toCharArray()) {
-            if (trieConfig.isCaseInsensitive()) {
-                character = Character.toLowerCase(character);
-            }
-            currentState = currentState.addState(character);
-        }
-        currentState.addEmit(trieConfig.isCaseInsensitive() ? keyword.toLowerCase(): keyword);
+    /**
+     * Returns the keyword with the given id. Keyword ids are assigned in the order in which the keywords
+     * were first added to the builder, starting at 0. Keywords are stored with their characters folded, that
+     * is lower-cased for a case insensitive trie and converted by the character converter, if any. Adding a
+     * keyword which is already present after folding does not assign a new id.
+     */
+    public String getKeyword(int keywordId) {
+        return this.keywords.get(keywordId);
+    }
+
+    List<String> getKeywords() {
+        return this.keywords;
+    }
+
+    /**
+     * @return the number of distinct keywords, so that arrays can be indexed by {@link Emit#getKeywordId()}
+     */
+    public int getKeywordCount() {
+        return this.keywords.size();
     }
 
     public Collection<Token> tokenize(String text) {
@@ -74,13 +133,152 @@ public class Trie
         return new MatchToken(text.substring(emit.getStart(), emit.getEnd() + 1), emit);
     }
 
-    @SuppressWarnings("unchecked")
     public List<Emit> parseText(CharSequence text) {
         DefaultEmitHandler emitHandler = new DefaultEmitHandler();
         parseText(text, emitHandler);
+        return applyOptions(text, emitHandler.getEmits());
+    }
+
+    /**
+     * Scans the text into the buffer, which is cleared first, with the same matches in the same order as
+     * {@link #parseText(CharSequence)} but without an object per match. A buffer which is reused from one
+     * call to the next stops allocating once it has grown to the largest result.
+     */
+    public void parseTextInto(CharSequence text, MatchBuffer matches) {
+        matches.clear();
+        parseText(text, matches);
+        if (trieConfig.isOnlyWholeWords() || trieConfig.isOnlyWholeWordsWhiteSpaceSeparated()) {
+            int kept = 0;
+            for (int index = 0; index < matches.size(); index++) {
+                int start = matches.getStart(index);
+                int end = matches.getEnd(index);
+                if ((trieConfig.isOnlyWholeWords() && isPartialMatch(text, start, end)) ||
+                        (trieConfig.isOnlyWholeWordsWhiteSpaceSeparated() &&
+                                !isWhiteSpaceSeparated(text, start, end))) {
+                    continue;
+                }
+                matches.move(index, kept++);
+            }
+            matches.truncate(kept);
+        }
+        if (!trieConfig.isAllowOverlaps()) {
+            matches.removeOverlaps();
+        }
+    }
+
+    /**
+     * Scans the text on the pool, one chunk per task, with exactly the same result as
+     * {@link #parseText(CharSequence)}. Each chunk emits the matches which end within it; it starts scanning
+     * early enough before its first character for the automaton to be in the state a scan of the whole text
+     * would be in. The matches of the chunks are concatenated in order, so there are no duplicates to remove,
+     * and the options are then applied to the whole text at once.
+     */
+    public List<Emit> parseTextParallel(CharSequence text, ForkJoinPool pool) {
+        return parseTextParallel(text, pool, Math.max(MIN_CHUNK_SIZE, text.length() / (pool.getParallelism() * 4)));
+    }
+
+    List<Emit> parseTextParallel(final CharSequence text, ForkJoinPool pool, int chunkSize) {
+        if (text.length() <= chunkSize) {
+            return parseText(text);
+        }
+        int maximumLength = getMaximumKeywordLength();
+        List<Callable<List<Emit>>> chunks = new ArrayList<>();
+        for (int start = 0; start < text.length(); start += chunkSize) {
+            final int chunkStart = start;
+            final int chunkEnd = (int) Math.min(text.length(), (long) start + chunkSize);
+            final int scanStart = scanStart(text, chunkStart, maximumLength);
+            chunks.add(new Callable<List<Emit>>() {
+                @Override
+                public List<Emit> call() {
+                    return parseChunk(text, scanStart, chunkStart, chunkEnd);
+                }
+            });
+        }
 
-        List<Emit> collectedEmits = emitHandler.getEmits();
+        List<Emit> collectedEmits = new ArrayList<>();
+        for (Future<List<Emit>> chunk : pool.invokeAll(chunks)) {
+            try {
+                collectedEmits.addAll(chunk.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while scanning", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Scanning a chunk failed", e.getCause());
+            }
+        }
+        if (trieConfig.isStopOnHit() && !collectedEmits.isEmpty()) {
+            // a scan of the whole text stops after the matches ending where the first match ends
+            int end = collectedEmits.get(0).getEnd();
+            int count = 0;
+            while (count < collectedEmits.size() && collectedEmits.get(count).getEnd() == end) {
+                count++;
+            }
+            collectedEmits = new ArrayList<>(collectedEmits.subList(0, count));
+        }
+        return applyOptions(text, collectedEmits);
+    }
+
+    /**
+     * Finds where the scan of a chunk must start: at least as many converted characters before the chunk as
+     * the longest keyword has, not counting white space which may be dropped, and after a character which
+     * does not convert to white space, so that dropping multiple spaces works out as for the whole text.
+     */
+    private int scanStart(CharSequence text, int chunkStart, int maximumLength) {
+        if (!isConverting()) {
+            return Math.max(0, chunkStart - maximumLength + 1);
+        }
+        FoldingTable foldingTable = trieConfig.getFoldingTable();
+        boolean dropsSpaces = trieConfig.isTreatMultipleSpacesAsOneSpace();
+        int count = 0;
+        int position = chunkStart;
+        while (position > 0 && (count <= maximumLength ||
+                (dropsSpaces && endsInWhiteSpace(text.charAt(position - 1), foldingTable)))) {
+            position--;
+            char character = text.charAt(position);
+            char[] expansion = foldingTable == null ? null : foldingTable.expansion(character);
+            if (expansion == null) {
+                char folded = foldingTable == null ? character : foldingTable.fold(character);
+                if (!dropsSpaces || !Character.isWhitespace(folded)) {
+                    count++;
+                }
+            } else {
+                for (char folded : expansion) {
+                    if (!dropsSpaces || !Character.isWhitespace(folded)) {
+                        count++;
+                    }
+                }
+            }
+        }
+        return position;
+    }
 
+    private static boolean endsInWhiteSpace(char character, FoldingTable foldingTable) {
+        if (foldingTable == null) {
+            return Character.isWhitespace(character);
+        }
+        // a character which folds into nothing leaves the last character as it was, so keep looking
+        return foldingTable.endsInWhiteSpaceOrNothing(character);
+    }
+
+    /**
+     * Scans the text from scanStart up to chunkEnd and keeps the matches which end at or after chunkStart.
+     */
+    private List<Emit> parseChunk(CharSequence text, final int scanStart, final int chunkStart, int chunkEnd) {
+        final List<Emit> emits = new ArrayList<>();
+        parseText(text.subSequence(scanStart, chunkEnd), new MatchHandler() {
+            @Override
+            public boolean onMatch(int start, int end, int keywordId) {
+                if (end + scanStart >= chunkStart) {
+                    emits.add(createEmit(start + scanStart, end + scanStart, keywordId));
+                }
+                return true;
+            }
+        });
+        return emits;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Emit> applyOptions(CharSequence text, List<Emit> collectedEmits) {
         // todo the process of identifying and then removing partial matching is inefficient.
         // todo better to add start and end states which only match text start, end or spaces
         if (trieConfig.isOnlyWholeWords()) {
@@ -105,83 +303,266 @@ public class Trie
     }
 
     public void parseText(CharSequence text, EmitHandler emitHandler) {
-        final CharacterConverter characterConverter = trieConfig.getCharacterConverter();
-        State currentState = this.rootState;
-        Character lastCharacter = '\0';
-        // todo rather than assigning a new int array every time perhaps this could be done more efficiently
-        // if there are no expanded or ignored characters then adjustedPosition[position] = position
-        int[] adjustedPosition = new int[text.length() + 1];
-        // the last int is used to store the current number of parsed characters
+        parseText(text, new EmitAdapter(emitHandler));
+    }
+
+    /**
+     * Scans the text and passes every match to the handler as it is found, without creating an
+     * {@link Emit} for it. The scan stops when the handler returns false, or after the first matches if the
+     * trie stops on hit. As with the {@link EmitHandler} variant, the whole word and overlap options are not
+     * applied.
+     */
+    public void parseText(CharSequence text, MatchHandler matchHandler) {
+        if (isConverting()) {
+            new MatcherSession(this, matchHandler).feed(text);
+        } else {
+            parseUnconverted(text, matchHandler);
+        }
+    }
+
+    /**
+     * @return whether a character converter or dropping multiple spaces may make the text which is fed into
+     *      the automaton differ in length from the text itself; a match then needs a {@link MatcherSession}
+     *      to map its start back, which remembers the positions of the most recent characters only
+     */
+    private boolean isConverting() {
+        return trieConfig.getCharacterConverter() != null || trieConfig.isTreatMultipleSpacesAsOneSpace();
+    }
+
+    /**
+     * Scans a text which is fed into the automaton one character for one character, lower-cased if need be,
+     * so that a match simply starts as many characters before its end as its keyword is long.
+     */
+    private void parseUnconverted(CharSequence text, MatchHandler matchHandler) {
+        FoldingTable foldingTable = trieConfig.getFoldingTable();
+        boolean stopOnHit = trieConfig.isStopOnHit();
+        int currentState = this.automaton.getRootState();
         for (int position = 0; position < text.length(); position++) {
-            Character character = text.charAt(position);
-            if (characterConverter != null) {
-                char[] newCharacters = characterConverter.convert(character);
-                adjustedPosition[adjustedPosition.length - 1] += newCharacters.length;
-                adjustedPosition[position] = adjustedPosition[adjustedPosition.length - 1] - 1;
-                for (char c : newCharacters) {
-                    if ((currentState = parseCharacter(adjustedPosition, position, lastCharacter, c, emitHandler, currentState)) == null) {
-                        return;
+            char character = text.charAt(position);
+            if (foldingTable != null) {
+                // without a converter the table only lower-cases, which never expands a character
+                character = foldingTable.fold(character);
+            }
+            currentState = this.automaton.nextState(currentState, character);
+            int emitted = this.keywordIndex == null ?
+                    storeEmits(position, currentState, matchHandler) :
+                    storeIndexedEmits(text, position, currentState, matchHandler);
+            if (emitted == STOPPED || (emitted > 0 && stopOnHit)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Scans a batch of documents on the executor, with the same result for each document as
+     * {@link #parseText(CharSequence)}. The documents are divided into runs of consecutive documents, one task
+     * per run; a task reuses a single set of scratch buffers for all of its documents, so the cost of a call
+     * is spread over the batch. Any executor will do, including one running each task on a virtual thread.
+     *
+     * @return the emits of each document, at the index of the document in the batch
+     */
+    public List<List<Emit>> parseAll(final List<? extends CharSequence> documents, Executor executor) {
+        // each task sets only the elements of its own run, which task.get() publishes to this thread
+        final List<List<Emit>> results = new ArrayList<>(Collections.nCopies(documents.size(), (List<Emit>) null));
+        int runLength = Math.max(1, documents.size() / (Runtime.getRuntime().availableProcessors() * 4));
+        List<FutureTask<Void>> tasks = new ArrayList<>();
+        for (int first = 0; first < documents.size(); first += runLength) {
+            final int from = first;
+            final int to = Math.min(documents.size(), first + runLength);
+            FutureTask<Void> task = new FutureTask<>(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    Scratch scratch = new Scratch();
+                    for (int document = from; document < to; document++) {
+                        results.set(document, parseText(documents.get(document), scratch));
                     }
-                    lastCharacter = c;
+                    return null;
                 }
-            } else {
-                adjustedPosition[adjustedPosition.length - 1]++;
-                adjustedPosition[position] = adjustedPosition[adjustedPosition.length - 1] - 1;
-                if ((currentState = parseCharacter(adjustedPosition, position, lastCharacter, character, emitHandler, currentState)) == null) {
-                    return;
-                }
-                lastCharacter = character;
+            });
+            executor.execute(task);
+            tasks.add(task);
+        }
+        for (FutureTask<Void> task : tasks) {
+            try {
+                task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while scanning", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Scanning a document failed", e.getCause());
             }
         }
+        return results;
     }
 
-    private State parseCharacter(int[] adjustedPosition, int position,
-                                 Character lastCharacter, Character character, EmitHandler emitHandler, State currentState) {
-        if (trieConfig.isTreatMultipleSpacesAsOneSpace()) {
-            if (Character.isWhitespace(lastCharacter) && Character.isWhitespace(character)) {
-                adjustedPosition[adjustedPosition.length - 1]--;
-                return currentState;
-            }
+    private List<Emit> parseText(CharSequence text, Scratch scratch) {
+        if (!isConverting()) {
+            parseUnconverted(text, scratch.adapter);
+        } else if (scratch.session == null) {
+            scratch.session = new MatcherSession(this, scratch.adapter);
+            scratch.session.feed(text);
+        } else {
+            scratch.session.reset();
+            scratch.session.feed(text);
         }
+        List<Emit> collectedEmits = new ArrayList<>(scratch.emits);
+        scratch.emits.clear();
+        return applyOptions(text, collectedEmits);
+    }
+
+    /**
+     * The buffers of a single worker of {@link #parseAll(List, Executor)}, reused from one document to the
+     * next.
+     */
+    private final class Scratch
+            implements EmitHandler {
 
-        if (trieConfig.isCaseInsensitive()) {
-            character = Character.toLowerCase(character);
+        private final List<Emit> emits = new ArrayList<>();
+
+        private final MatchHandler adapter = new EmitAdapter(this);
+
+        /** scans the documents of a converting trie, created for the first of them */
+        private MatcherSession session;
+
+        @Override
+        public void emit(Emit emit) {
+            this.emits.add(emit);
         }
-        currentState = getState(currentState, character);
-        if (storeEmits(adjustedPosition, position, currentState, emitHandler) && trieConfig.isStopOnHit()) {
-            return null;
+    }
+
+    /**
+     * Creates an emit for every match and hands it to the emit handler.
+     */
+    private final class EmitAdapter
+            implements MatchHandler {
+
+        private final EmitHandler emitHandler;
+
+        private EmitAdapter(EmitHandler emitHandler) {
+            this.emitHandler = emitHandler;
+        }
+
+        @Override
+        public boolean onMatch(int start, int end, int keywordId) {
+            this.emitHandler.emit(createEmit(start, end, keywordId));
+            return true;
+        }
+    }
+
+    /**
+     * Starts a scan of a text which arrives in pieces. The session finds the same matches as
+     * {@link #parseText(CharSequence, EmitHandler)} on the whole text, in memory which does not depend on its
+     * length.
+     */
+    public MatcherSession newSession(EmitHandler emitHandler) {
+        return new MatcherSession(this, new EmitAdapter(emitHandler));
+    }
+
+    /**
+     * Starts a scan of a text which arrives in pieces, which hands its matches to the handler without creating
+     * an {@link Emit} for them; see {@link #newSession(EmitHandler)}.
+     */
+    public MatcherSession newSession(MatchHandler matchHandler) {
+        return new MatcherSession(this, matchHandler);
+    }
+
+    /**
+     * Starts a scan of a stream which may grow beyond the 2<sup>31</sup> characters an int can address. The
+     * matches are reported as {@link LongEmit}s, whose byte and character offsets are both the character
+     * offsets in the stream; see {@link #newSession(EmitHandler)}.
+     */
+    public MatcherSession newSession(LongEmitHandler longEmitHandler) {
+        return new MatcherSession(this, longEmitHandler);
+    }
+
+    /**
+     * Scans the text read from the reader, which is not closed, in constant memory; see
+     * {@link #newSession(EmitHandler)}.
+     */
+    public void parse(Reader reader, EmitHandler emitHandler) throws IOException {
+        parse(reader, newSession(emitHandler));
+    }
+
+    /**
+     * Scans the text read from the reader, which is not closed, in constant memory and without a limit on its
+     * length; see {@link #newSession(LongEmitHandler)}.
+     */
+    public void parse(Reader reader, LongEmitHandler longEmitHandler) throws IOException {
+        parse(reader, newSession(longEmitHandler));
+    }
+
+    private void parse(Reader reader, MatcherSession session) throws IOException {
+        char[] buffer = new char[READ_BUFFER_SIZE];
+        int read;
+        while (!session.isStopped() && (read = reader.read(buffer)) != -1) {
+            session.feed(buffer, 0, read);
         }
-        return currentState;
     }
 
     public Emit firstMatch(CharSequence text) {
-        if (!trieConfig.isAllowOverlaps()) {
-            // Slow path. Needs to find all the matches to detect overlaps.
+        if (!trieConfig.isAllowOverlaps() || trieConfig.getCharacterConverter() != null) {
+            // Slow path. Needs to find all the matches to detect overlaps, or to map the converted
+            // characters back to the text.
             Collection<Emit> parseText = parseText(text);
             if (parseText != null && !parseText.isEmpty()) {
                 return parseText.iterator().next();
             }
         } else {
             // Fast path. Returns first match found.
-            State currentState = this.rootState;
+            FoldingTable foldingTable = trieConfig.getFoldingTable();
+            int currentState = this.automaton.getRootState();
             for (int position = 0; position < text.length(); position++) {
-                Character character = text.charAt(position);
-                if (trieConfig.isCaseInsensitive()) {
-                    character = Character.toLowerCase(character);
+                char character = text.charAt(position);
+                if (foldingTable != null) {
+                    character = foldingTable.fold(character);
                 }
-                currentState = getState(currentState, character);
-                Collection<String> emitStrs = currentState.emit();
-                if (emitStrs != null && !emitStrs.isEmpty()) {
-                    for (String emitStr : emitStrs) {
-                        final Emit emit = new Emit(position - emitStr.length() + 1, position, emitStr);
-                        if (trieConfig.isOnlyWholeWords()) {
-                            if (!isPartialMatch(text, emit)) {
-                                return emit;
-                            }
-                        } else {
-                            return emit;
-                        }
-                    }
+                currentState = this.automaton.nextState(currentState, character);
+                Emit emit = firstEmit(text, position, currentState);
+                if (emit != null) {
+                    return emit;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the first acceptable keyword emitted by the state or its dictionary suffixes, shortest
+     * keyword first.
+     */
+    private Emit firstEmit(CharSequence text, int position, int state) {
+        if (this.keywordIndex != null) {
+            return firstIndexedEmit(text, position, state);
+        }
+        int dictionarySuffix = this.automaton.dictionarySuffix(state);
+        if (dictionarySuffix != Automaton.NO_STATE) {
+            Emit emit = firstEmit(text, position, dictionarySuffix);
+            if (emit != null) {
+                return emit;
+            }
+        }
+        for (int index = 0; index < this.automaton.emitCount(state); index++) {
+            int keywordId = this.automaton.emit(state, index);
+            final Emit emit = createEmit(position - this.keywords.get(keywordId).length() + 1, position, keywordId);
+            if (trieConfig.isOnlyWholeWords()) {
+                if (!isPartialMatch(text, emit)) {
+                    return emit;
+                }
+            } else {
+                return emit;
+            }
+        }
+        return null;
+    }
+
+    private Emit firstIndexedEmit(CharSequence text, int position, int state) {
+        for (int index = 0; index < this.automaton.emitCount(state); index++) {
+            int start = position - this.automaton.emit(state, index) + 1;
+            int[] keywordIds = start < 0 ? null : this.keywordIndex.find(text, start, position + 1);
+            if (keywordIds != null) {
+                Emit emit = createEmit(start, position, keywordIds[0]);
+                if (!trieConfig.isOnlyWholeWords() || !isPartialMatch(text, emit)) {
+                    return emit;
                 }
             }
         }
@@ -189,10 +570,19 @@ public class Trie
     }
 
     private boolean isPartialMatch(CharSequence searchText, Emit emit) {
-        return (emit.getStart() != 0 &&
-                Character.isAlphabetic(searchText.charAt(emit.getStart() - 1))) ||
-                (emit.getEnd() + 1 != searchText.length() &&
-                        Character.isAlphabetic(searchText.charAt(emit.getEnd() + 1)));
+        return isPartialMatch(searchText, emit.getStart(), emit.getEnd());
+    }
+
+    private boolean isPartialMatch(CharSequence searchText, int start, int end) {
+        return (start != 0 &&
+                Character.isAlphabetic(searchText.charAt(start - 1))) ||
+                (end + 1 != searchText.length() &&
+                        Character.isAlphabetic(searchText.charAt(end + 1)));
+    }
+
+    private boolean isWhiteSpaceSeparated(CharSequence searchText, int start, int end) {
+        return (start == 0 || Character.isWhitespace(searchText.charAt(start - 1))) &&
+                (end + 1 == searchText.length() || Character.isWhitespace(searchText.charAt(end + 1)));
     }
 
     private void removePartialMatches(CharSequence searchText, List<Emit> collectedEmits) {
@@ -208,11 +598,9 @@ public class Trie
     }
 
     private void removePartialMatchesWhiteSpaceSeparated(CharSequence searchText, List<Emit> collectedEmits) {
-        long size = searchText.length();
         List<Emit> removeEmits = new ArrayList<>();
         for (Emit emit : collectedEmits) {
-            if ((emit.getStart() == 0 || Character.isWhitespace(searchText.charAt(emit.getStart() - 1))) &&
-                    (emit.getEnd() + 1 == size || Character.isWhitespace(searchText.charAt(emit.getEnd() + 1)))) {
+            if (isWhiteSpaceSeparated(searchText, emit.getStart(), emit.getEnd())) {
                 continue;
             }
             removeEmits.add(emit);
@@ -222,81 +610,140 @@ public class Trie
         }
     }
 
-    private State getState(State currentState, Character character) {
-        State newCurrentState = currentState.nextState(character);
-        while (newCurrentState == null) {
-            currentState = currentState.failure();
-            newCurrentState = currentState.nextState(character);
+    /**
+     * Emits the keywords of the state and of its dictionary suffixes, shortest keyword first. The chain of
+     * dictionary suffixes only holds states with keywords, so it is only followed when there is output.
+     *
+     * @return the number of keywords emitted, or {@link #STOPPED} if the handler asked to stop
+     */
+    private int storeEmits(int position, int currentState, MatchHandler matchHandler) {
+        int emitted = 0;
+        int dictionarySuffix = this.automaton.dictionarySuffix(currentState);
+        if (dictionarySuffix != Automaton.NO_STATE) {
+            emitted = storeEmits(position, dictionarySuffix, matchHandler);
+            if (emitted == STOPPED) {
+                return STOPPED;
+            }
+        }
+        int emitCount = this.automaton.emitCount(currentState);
+        for (int index = 0; index < emitCount; index++) {
+            int keywordId = this.automaton.emit(currentState, index);
+            int start = position - this.keywords.get(keywordId).length() + 1;
+            if (!matchHandler.onMatch(start, position, keywordId)) {
+                return STOPPED;
+            }
+            emitted++;
         }
-        return newCurrentState;
+        return emitted;
     }
 
-    private void constructFailureStates() {
-        Queue<State> queue = new LinkedBlockingDeque<>();
-
-        // First, set the fail state of all depth 1 states to the root state
-        for (State depthOneState : this.rootState.getStates()) {
-            depthOneState.setFailure(this.rootState);
-            queue.add(depthOneState);
-        }
+    TrieConfig getTrieConfig() {
+        return this.trieConfig;
+    }
 
-        // Second, determine the fail state for all depth > 1 state
-        while (!queue.isEmpty()) {
-            State currentState = queue.remove();
+    Automaton getAutomaton() {
+        return this.automaton;
+    }
 
-            for (Character transition : currentState.getTransitions()) {
-                State targetState = currentState.nextState(transition);
-                queue.add(targetState);
+    KeywordIndex getKeywordIndex() {
+        return this.keywordIndex;
+    }
 
-                State traceFailureState = currentState.failure();
-                while (traceFailureState.nextState(transition) == null) {
-                    traceFailureState = traceFailureState.failure();
-                }
-                State newFailureState = traceFailureState.nextState(transition);
-                targetState.setFailure(newFailureState);
-                targetState.addEmit(newFailureState.emit());
+    /**
+     * @return the length of the longest keyword, at least 1
+     */
+    int getMaximumKeywordLength() {
+        int length = this.maximumKeywordLength;
+        if (length == 0) {
+            length = 1;
+            for (String keyword : this.keywords) {
+                length = Math.max(length, keyword.length());
             }
+            this.maximumKeywordLength = length;
         }
+        return length;
     }
 
-    private boolean storeEmits(int[] adjustedPosition, int position, State currentState, EmitHandler emitHandler) {
-        boolean emitted = false;
-        Collection<String> emits = currentState.emit();
-        if (emits != null && !emits.isEmpty()) {
-            for (String emit : emits) {
-                int endAdjust = adjustedPosition[position] - position;
-                int startAdjustedPosition = endAdjust + position - (emit.length() - 1);
-                int startPosition = startAdjustedPosition;
-                // there are lots of expanded characters this can be true
-                if (startPosition > position) {
-                    startPosition = position;
-                }
-                // find the start position which is equal to the startAdjustedPosition
-                if (adjustedPosition[startPosition] <= startAdjustedPosition) {
-                    while (adjustedPosition[startPosition] < startAdjustedPosition) {
-                        startPosition++;
-                    }
-                    // startPosition != position
-                    //  is need to prevent case where startPosition == endPosition == 0 and all adjustedPosition == 0
-                    // adjustedPosition[startPosition + 1] == startAdjustedPosition
-                    //  is used to move startPosition to the highest position
-                    while (startPosition != position && adjustedPosition[startPosition + 1] == startAdjustedPosition) {
-                        startPosition++;
-                    }
-                }
-                // this will only be the case where character converter increases the number of characters
-                // if startPosition == 0 then the first character is an expanded character
-                else if (startPosition != 0) {
-                    while (adjustedPosition[startPosition] > startAdjustedPosition) {
-                        startPosition--;
-                    }
-                    // Where the start character is an expanded character move startPosition to the highest position
-                    if (adjustedPosition[startPosition] < startAdjustedPosition) {
-                        startPosition++;
+    /**
+     * Writes the trie in a compact, versioned binary format which {@link #load(InputStream)} reads back
+     * with a few bulk copies. A trie running over the state graph is stored as a double array. A character
+     * converter is stored as what it folds every character into, so the loaded trie folds the same way but
+     * its {@link TrieConfig#getCharacterConverter()} is not the saved instance. A minimized trie cannot be
+     * saved.
+     */
+    public void save(OutputStream out) throws IOException {
+        TrieFile.write(this, out);
+    }
+
+    public void save(Path path) throws IOException {
+        try (OutputStream out = Files.newOutputStream(path)) {
+            TrieFile.write(this, out);
+        }
+    }
+
+    /**
+     * Reads a trie written by {@link #save(OutputStream)}.
+     *
+     * @throws IOException if the data is not a trie, was written by an unsupported version or does not
+     *      match its checksum
+     */
+    public static Trie load(InputStream in) throws IOException {
+        return TrieFile.read(in);
+    }
+
+    /**
+     * Reads a trie written by {@link #save(Path)}, memory-mapping the file.
+     *
+     * @throws IOException if the file is not a trie, was written by an unsupported version or does not
+     *      match its checksum
+     */
+    public static Trie load(Path path) throws IOException {
+        return TrieFile.read(path);
+    }
+
+    /**
+     * Maps a file written by {@link #save(Path)} read-only into memory and scans straight from the mapping,
+     * so the automaton occupies no heap beyond its keyword table. Files larger than 2 GB are mapped in
+     * segments. Processes mapping the same file share its pages. The checksum is not verified, so only the
+     * pages a scan touches are read; use {@link #load(Path)} to verify it.
+     *
+     * <p>The tables of a trie compiled with {@code compileRadix()} are read onto the heap rather than mapped.
+     * The mapped trie cannot be saved or serialized again.</p>
+     *
+     * @throws IOException if the file is not a trie or was written by an unsupported version
+     */
+    public static Trie map(Path path) throws IOException {
+        return TrieFile.map(path, SegmentedBuffer.SEGMENT_BITS);
+    }
+
+    /**
+     * Creates the emit for a match. The keyword is resolved lazily through the keyword table, which never
+     * changes once the trie is built.
+     */
+    Emit createEmit(int start, int end, int keywordId) {
+        return new Emit(start, end, keywordId, this.keywords);
+    }
+
+    /**
+     * Emits the keywords a minimized automaton may have matched, shortest keyword first. Each candidate
+     * length is looked up in the keyword index against the text ending at the position; the minimized trie
+     * never changes the number of characters, so text positions need no adjusting.
+     *
+     * @return the number of keywords emitted, or {@link #STOPPED} if the handler asked to stop
+     */
+    private int storeIndexedEmits(CharSequence text, int position, int currentState, MatchHandler matchHandler) {
+        int emitted = 0;
+        int emitCount = this.automaton.emitCount(currentState);
+        for (int index = 0; index < emitCount; index++) {
+            int start = position - this.automaton.emit(currentState, index) + 1;
+            int[] keywordIds = start < 0 ? null : this.keywordIndex.find(text, start, position + 1);
+            if (keywordIds != null) {
+                for (int keywordId : keywordIds) {
+                    if (!matchHandler.onMatch(start, position, keywordId)) {
+                        return STOPPED;
                     }
+                    emitted++;
                 }
-                emitHandler.emit(new Emit(startPosition, position, emit));
-                emitted = true;
             }
         }
         return emitted;
@@ -306,56 +753,471 @@ public class Trie
         return new TrieBuilder();
     }
 
+    /**
+     * Collects the options and keywords of a {@link Trie}. The builder is not thread-safe and can build a
+     * single trie; adding keywords after {@link #build()} is not allowed.
+     */
     public static class TrieBuilder {
 
-        private TrieConfig trieConfig = new TrieConfig();
+        /** smaller collections of keywords are not worth inserting in parallel */
+        private static final int PARALLEL_THRESHOLD = 10000;
+
+        private boolean allowOverlaps = true;
+
+        private boolean onlyWholeWords = false;
+
+        private boolean onlyWholeWordsWhiteSpaceSeparated = false;
+
+        private boolean caseInsensitive = false;
+
+        private boolean treatMultipleSpacesAsOneSpace = false;
+
+        private boolean stopOnHit = false;
+
+        private CharacterConverter characterConverter = null;
+
+        private State rootState = new State();
+
+        private final List<String> keywords = new ArrayList<>();
 
-        private Trie trie = new Trie(trieConfig);
+        private Compilation compilation = Compilation.STATE_GRAPH;
+
+        private boolean adaptiveTransitions = false;
+
+        private ForkJoinPool pool = null;
+
+        private MinimizationStatistics minimizationStatistics = null;
+
+        /** the time build() took, or 0 before it was called */
+        private long buildNanos = 0;
+
+        private boolean built = false;
+
+        /** folds the keywords; only valid while foldingTableCurrent is set */
+        private FoldingTable foldingTable = null;
+
+        private boolean foldingTableCurrent = false;
 
         private TrieBuilder() {}
 
+        /**
+         * Lower-cases the keywords and the text, character by character, through a table of all 65536
+         * characters which is computed once and shared by every case insensitive trie without a character
+         * converter. Must be set before the keywords are added.
+         */
         public TrieBuilder caseInsensitive() {
-            this.trieConfig.setCaseInsensitive(true);
+            this.caseInsensitive = true;
+            this.foldingTableCurrent = false;
             return this;
         }
 
+        /**
+         * Converts the characters of the keywords and of the text, which are lower-cased afterwards for a case
+         * insensitive trie. The conversion of every character is computed once, when the first keyword is
+         * added or the trie is built, and looked up in a table from then on. Filling the table calls the
+         * converter for all 65536 characters, which takes some milliseconds; the table is cached for the
+         * converter instance, or for all instances equal to it, so building again with the same converter
+         * does not pay this again. The converter must therefore not change its conversion once it has been
+         * used. Must be set before the keywords are added.
+         */
         public TrieBuilder setCharacterConverter(CharacterConverter characterConverter) {
-            this.trieConfig.setCharacterConverter(characterConverter);
+            this.characterConverter = characterConverter;
+            this.foldingTableCurrent = false;
             return this;
         }
 
         public TrieBuilder removeOverlaps() {
-            this.trieConfig.setAllowOverlaps(false);
+            this.allowOverlaps = false;
             return this;
         }
 
         public TrieBuilder onlyWholeWords() {
-            this.trieConfig.setOnlyWholeWords(true);
+            this.onlyWholeWords = true;
             return this;
         }
 
         public TrieBuilder onlyWholeWordsWhiteSpaceSeparated() {
-            this.trieConfig.setOnlyWholeWordsWhiteSpaceSeparated(true);
+            this.onlyWholeWordsWhiteSpaceSeparated = true;
             return this;
         }
 
         public TrieBuilder treatMultipleSpacesAsOneSpace() {
-            this.trieConfig.setTreatMultipleSpacesAsOneSpace(true);
+            this.treatMultipleSpacesAsOneSpace = true;
             return this;
         }
 
+        /**
+         * @throws IllegalStateException if the trie has already been built
+         */
         public TrieBuilder addKeyword(String keyword) {
-            trie.addKeyword(keyword);
+            checkNotBuilt();
+            if (keyword == null || keyword.length() == 0) {
+                return this;
+            }
+            String foldedKeyword = fold(keyword);
+            if (foldedKeyword.length() > 0) {
+                addEmit(TrieConstruction.insert(this.rootState, foldedKeyword), foldedKeyword);
+            }
             return this;
         }
+
+        /**
+         * Adds all keywords, in iteration order. With {@link #parallel(ForkJoinPool)} the states of large
+         * collections are inserted concurrently, one task per first character; the result is the same as
+         * adding the keywords one by one.
+         *
+         * @throws IllegalStateException if the trie has already been built
+         */
+        public TrieBuilder addKeywords(Collection<String> keywords) {
+            checkNotBuilt();
+            if (this.pool == null || keywords.size() < PARALLEL_THRESHOLD) {
+                for (String keyword : keywords) {
+                    addKeyword(keyword);
+                }
+                return this;
+            }
+            List<String> nonEmptyKeywords = new ArrayList<>(keywords.size());
+            for (String keyword : keywords) {
+                String foldedKeyword = keyword == null ? null : fold(keyword);
+                if (foldedKeyword != null && foldedKeyword.length() > 0) {
+                    nonEmptyKeywords.add(foldedKeyword);
+                }
+            }
+            State[] endStates = TrieConstruction.insert(this.rootState, nonEmptyKeywords, pool);
+            // keyword ids are handed out in order, exactly as addKeyword would
+            for (int index = 0; index < endStates.length; index++) {
+                addEmit(endStates[index], nonEmptyKeywords.get(index));
+            }
+            return this;
+        }
+
+        /**
+         * Adds keywords which arrive in ascending order of their characters (after folding them, for a case
+         * insensitive trie or one with a character converter), such as the output of a sorted export. The
+         * keywords are read in a single pass: the states shared with the previous keyword are taken from the
+         * path it left behind rather than looked up again, and only that path is kept besides the keyword
+         * table. As soon as a keyword leaves the path of the previous one, the states below the fork can
+         * receive no further keywords; with {@link #adaptiveTransitions()} their transitions are compacted
+         * right away.
+         *
+         * @throws IllegalArgumentException if a keyword sorts before the keyword preceding it
+         * @throws IllegalStateException if the trie has already been built
+         */
+        public TrieBuilder addSortedKeywords(Iterator<? extends CharSequence> keywords) {
+            checkNotBuilt();
+            State[] path = new State[16];
+            char[] previous = new char[16];
+            int previousLength = 0;
+            path[0] = this.rootState;
+            while (keywords.hasNext()) {
+                CharSequence nextKeyword = keywords.next();
+                if (nextKeyword == null) {
+                    continue;
+                }
+                String keyword = fold(nextKeyword);
+                if (keyword.length() == 0) {
+                    continue;
+                }
+                int length = keyword.length();
+                if (length >= path.length) {
+                    path = Arrays.copyOf(path, Math.max(length + 1, path.length * 2));
+                    previous = Arrays.copyOf(previous, path.length);
+                }
+                int common = 0;
+                int limit = Math.min(length, previousLength);
+                while (common < limit && keyword.charAt(common) == previous[common]) {
+                    common++;
+                }
+                if (common < length ? common < previousLength && keyword.charAt(common) < previous[common]
+                        : common < previousLength) {
+                    throw new IllegalArgumentException("The keyword '" + keyword + "' is out of order");
+                }
+                if (adaptiveTransitions) {
+                    for (int depth = previousLength; depth > common; depth--) {
+                        path[depth].compactTransitions();
+                    }
+                }
+                for (int depth = common; depth < length; depth++) {
+                    previous[depth] = keyword.charAt(depth);
+                    path[depth + 1] = path[depth].addState(previous[depth]);
+                }
+                previousLength = length;
+                addEmit(path[length], keyword);
+            }
+            return this;
+        }
+
+        /**
+         * @return the keyword as it is stored and inserted, with its characters folded as configured
+         */
+        private String fold(CharSequence keyword) {
+            FoldingTable table = foldingTable();
+            return table == null ? keyword.toString() : table.fold(keyword);
+        }
+
+        private FoldingTable foldingTable() {
+            if (!this.foldingTableCurrent) {
+                this.foldingTable = FoldingTable.of(caseInsensitive, characterConverter);
+                this.foldingTableCurrent = true;
+            }
+            return this.foldingTable;
+        }
+
+        private void addEmit(State endState, String keyword) {
+            for (int keywordId : endState.emit()) {
+                if (this.keywords.get(keywordId).equals(keyword)) {
+                    return;
+                }
+            }
+            endState.addEmit(this.keywords.size());
+            this.keywords.add(keyword);
+        }
+
+        /**
+         * Spreads the construction of the trie over the given pool: the insertion of keywords added through
+         * {@link #addKeywords(Collection)}, the computation of the failure states and the compaction of the
+         * transitions. The trie is identical to one built on a single thread.
+         */
+        public TrieBuilder parallel(ForkJoinPool pool) {
+            this.pool = pool;
+            return this;
+        }
+
         public TrieBuilder stopOnHit() {
-            trie.trieConfig.setStopOnHit(true);
+            this.stopOnHit = true;
             return this;
         }
 
+        /**
+         * Compiles the trie into flat double-array tables once all keywords have been added. This uses a
+         * fraction of the heap of the default state graph and scans without boxing or pointer chasing, at
+         * the cost of a longer build.
+         */
+        public TrieBuilder compileDoubleArray() {
+            this.compilation = Compilation.DOUBLE_ARRAY;
+            return this;
+        }
+
+        /**
+         * Compiles the trie into a full DFA once all keywords have been added, with every failure transition
+         * resolved into the goto table. Scanning then costs exactly one table lookup per character. The table
+         * holds a row per state and a column per distinct keyword character; check
+         * {@link #estimateDfaSize()} first for large dictionaries.
+         */
+        public TrieBuilder compileDfa() {
+            this.compilation = Compilation.DFA;
+            return this;
+        }
+
+        /**
+         * Compiles the trie into flat tables once all keywords have been added, in which every chain of states
+         * with a single transition, as spelled by the tail of a long keyword, is stored as a label: the states
+         * of a chain are numbered consecutively and following it costs one character comparison per state.
+         * Only states with several transitions keep a transition table. This suits dictionaries of long
+         * keywords or phrases, where most states are part of such a chain.
+         */
+        public TrieBuilder compileRadix() {
+            this.compilation = Compilation.RADIX;
+            return this;
+        }
+
+        /**
+         * Estimates the heap, in bytes, a DFA compiled from the keywords added so far would need.
+         */
+        public long estimateDfaSize() {
+            BitSet characters = new BitSet();
+            List<State> states = collectStates();
+            for (State state : states) {
+                for (char transition : state.getTransitionCharacters()) {
+                    characters.set(transition);
+                }
+            }
+            return DfaAutomaton.estimateSize(states.size(), characters.cardinality());
+        }
+
+        /**
+         * Merges equivalent states once all keywords have been added, so that keywords ending in the same
+         * characters share those states, as in a DAWG. As a merged state no longer identifies a keyword, a
+         * match is confirmed by looking the matched text up in an index of the keywords; the matches are
+         * exactly those of an unminimized trie. Cannot be combined with a {@link CharacterConverter} or
+         * {@link #treatMultipleSpacesAsOneSpace()}, which make the matched text differ from the keyword.
+         * The effect is reported by {@link #getMinimizationStatistics()}.
+         */
+        public TrieBuilder minimize() {
+            this.compilation = Compilation.MINIMIZED;
+            return this;
+        }
+
+        /**
+         * Describes the effect of {@link #minimize()}: the number of states and the estimated heap of the
+         * trie before and after, and the time taken by each step.
+         *
+         * @throws IllegalStateException if no minimized trie has been built
+         */
+        public MinimizationStatistics getMinimizationStatistics() {
+            if (this.minimizationStatistics == null) {
+                throw new IllegalStateException("No minimized trie has been built");
+            }
+            return this.minimizationStatistics;
+        }
+
+        /**
+         * Picks the representation of each state's transitions by its fan-out when the trie is built: a
+         * table indexed by character for the root and other dense states, sorted arrays for mid-size
+         * states and the hash map only for wide, sparse states. States with a single transition always
+         * hold it inline. Only applies to the state graph, not to the compiled representations.
+         */
+        public TrieBuilder adaptiveTransitions() {
+            this.adaptiveTransitions = true;
+            return this;
+        }
+
+        /**
+         * Describes the state graph as it is now; after {@link #build()} this includes the representations
+         * chosen by {@link #adaptiveTransitions()} and the time the build took.
+         *
+         * @throws IllegalStateException if the trie was compiled, which discards the state graph
+         */
+        public TrieStatistics getStatistics() {
+            TrieStatistics statistics = new TrieStatistics();
+            for (State state : collectStates()) {
+                state.addTo(statistics);
+            }
+            statistics.setBuild(this.keywords.size(), this.buildNanos);
+            return statistics;
+        }
+
+        private List<State> collectStates() {
+            if (this.rootState == null) {
+                throw new IllegalStateException("The state graph has been compiled and is no longer available");
+            }
+            List<State> states = new ArrayList<>();
+            Queue<State> queue = new ArrayDeque<>();
+            queue.add(this.rootState);
+            while (!queue.isEmpty()) {
+                State state = queue.remove();
+                states.add(state);
+                queue.addAll(state.getStates());
+            }
+            return states;
+        }
+
+        /**
+         * Builds the trie. The trie is immutable and can be shared between threads without synchronization;
+         * the configured {@link CharacterConverter} is only called while its folding table is computed.
+         *
+         * @throws IllegalStateException if the trie has already been built
+         */
         public Trie build() {
-            trie.constructFailureStates();
-            return trie;
+            checkNotBuilt();
+            if (compilation == Compilation.MINIMIZED && (characterConverter != null || treatMultipleSpacesAsOneSpace)) {
+                throw new IllegalStateException(
+                        "A minimized trie cannot convert characters or treat multiple spaces as one");
+            }
+            this.built = true;
+            long buildStart = System.nanoTime();
+            List<State> states = TrieConstruction.constructFailureStates(this.rootState, pool);
+            Automaton automaton;
+            KeywordIndex keywordIndex = null;
+            if (compilation == Compilation.MINIMIZED) {
+                long minimizeStart = System.nanoTime();
+                TrieStatistics before = new TrieStatistics();
+                for (State state : states) {
+                    state.addTo(before);
+                }
+                MinimizedAutomaton minimized = MinimizedAutomaton.compile(states);
+                keywordIndex = KeywordIndex.of(this.rootState, keywords, caseInsensitive);
+                this.minimizationStatistics = new MinimizationStatistics(before.getStateCount(),
+                        before.getEstimatedBytes(), minimized.getStateCount(),
+                        minimized.footprint() + keywordIndex.footprint(),
+                        minimizeStart - buildStart, System.nanoTime() - minimizeStart);
+                automaton = minimized;
+                this.rootState = null;
+            } else {
+                automaton = compile(states);
+                if (compilation != Compilation.STATE_GRAPH) {
+                    // the state graph is no longer needed, let it be collected
+                    this.rootState = null;
+                }
+            }
+            this.buildNanos = System.nanoTime() - buildStart;
+            return new Trie(createTrieConfig(), automaton,
+                    Collections.unmodifiableList(Arrays.asList(keywords.toArray(new String[keywords.size()]))),
+                    keywordIndex);
         }
+
+        /**
+         * Builds a trie which scans UTF-8 encoded bytes rather than characters, matching exactly like the
+         * trie {@link #build()} would match the decoded text. The automaton runs over the bytes of the
+         * encoded keywords and is compiled as configured by {@link #compileDoubleArray()},
+         * {@link #compileDfa()} or {@link #compileRadix()}. Cannot be combined with a
+         * {@link CharacterConverter}, {@link #treatMultipleSpacesAsOneSpace()} or {@link #minimize()}.
+         *
+         * @throws IllegalStateException if the trie has already been built
+         */
+        public Utf8Trie buildUtf8() {
+            checkNotBuilt();
+            if (characterConverter != null || treatMultipleSpacesAsOneSpace || compilation == Compilation.MINIMIZED) {
+                throw new IllegalStateException(
+                        "A UTF-8 trie cannot convert characters, treat multiple spaces as one or be minimized");
+            }
+            this.built = true;
+            int[] keywordLengths = new int[keywords.size()];
+            int[] keywordByteLengths = new int[keywords.size()];
+            State byteRootState = Utf8Trie.encode(this.rootState, keywordLengths, keywordByteLengths);
+            this.rootState = null;
+            List<State> states = TrieConstruction.constructFailureStates(byteRootState, pool);
+            return new Utf8Trie(createTrieConfig(), compile(states),
+                    Collections.unmodifiableList(Arrays.asList(keywords.toArray(new String[keywords.size()]))),
+                    keywordLengths, keywordByteLengths);
+        }
+
+        /**
+         * Compiles the states, whose failure states have been constructed, as configured.
+         */
+        private Automaton compile(List<State> states) {
+            switch (compilation) {
+                case DOUBLE_ARRAY :
+                    return DoubleArrayAutomaton.compile(states);
+                case DFA :
+                    return DfaAutomaton.compile(states);
+                case RADIX :
+                    return RadixAutomaton.compile(states);
+                default :
+                    if (adaptiveTransitions) {
+                        TrieConstruction.compactTransitions(states, pool);
+                    }
+                    return new StateGraphAutomaton(states);
+            }
+        }
+
+        /**
+         * Builds a trie to which keywords can still be added, and from which they can be removed, after it
+         * has been built. Each change only repairs the states it affects. The trie always runs over the
+         * state graph; {@link #compileDoubleArray()}, {@link #compileDfa()}, {@link #compileRadix()},
+         * {@link #minimize()} and
+         * {@link #adaptiveTransitions()} do not apply.
+         *
+         * @throws IllegalStateException if the trie has already been built
+         */
+        public IncrementalTrie buildIncremental() {
+            checkNotBuilt();
+            this.built = true;
+            List<State> states = TrieConstruction.constructFailureStates(this.rootState, pool);
+            return new IncrementalTrie(createTrieConfig(), states, keywords);
+        }
+
+        private TrieConfig createTrieConfig() {
+            return new TrieConfig(allowOverlaps, onlyWholeWords, onlyWholeWordsWhiteSpaceSeparated,
+                    caseInsensitive, treatMultipleSpacesAsOneSpace, stopOnHit, characterConverter, foldingTable());
+        }
+
+        private void checkNotBuilt() {
+            if (this.built) {
+                throw new IllegalStateException("The trie has already been built");
+            }
+        }
+
+        private enum Compilation { STATE_GRAPH, DOUBLE_ARRAY, DFA, RADIX, MINIMIZED }
     }
 }
@@ -4,72 +4,90 @@ import org.ahocorasick.text.CharacterConverter;
 
 import java.io.Serializable;
 
+/**
+ * The options a {@link Trie} was built with. A TrieConfig is immutable; the options are set through
+ * {@link Trie.TrieBuilder}.
+ */
 public class TrieConfig
         implements Serializable {
 
     private static final long serialVersionUID = -177305571297059863L;
 
-    private boolean allowOverlaps = true;
+    private final boolean allowOverlaps;
 
-    private boolean onlyWholeWords = false;
+    private final boolean onlyWholeWords;
 
-    private boolean onlyWholeWordsWhiteSpaceSeparated = false;
+    private final boolean onlyWholeWordsWhiteSpaceSeparated;
 
-    private boolean caseInsensitive = false;
+    private final boolean caseInsensitive;
 
-    private boolean treatMultipleSpacesAsOneSpace = false;
+    private final boolean treatMultipleSpacesAsOneSpace;
 
-    private boolean stopOnHit = false;
+    private final boolean stopOnHit;
 
-    private CharacterConverter characterConverter = null;
+    private final CharacterConverter characterConverter;
 
-    public boolean isStopOnHit() { return stopOnHit; }
-
-    public void setStopOnHit(boolean stopOnHit) { this.stopOnHit = stopOnHit; }
+    /** folds the characters as configured, computed when first needed; null until then */
+    private transient volatile FoldingTable foldingTable;
 
-    public boolean isAllowOverlaps() {
-        return allowOverlaps;
+    TrieConfig(boolean allowOverlaps, boolean onlyWholeWords, boolean onlyWholeWordsWhiteSpaceSeparated,
+               boolean caseInsensitive, boolean treatMultipleSpacesAsOneSpace, boolean stopOnHit,
+               CharacterConverter characterConverter) {
+        this(allowOverlaps, onlyWholeWords, onlyWholeWordsWhiteSpaceSeparated, caseInsensitive,
+                treatMultipleSpacesAsOneSpace, stopOnHit, characterConverter, null);
     }
 
-    public void setAllowOverlaps(boolean allowOverlaps) {
+    /**
+     * @param foldingTable the folding table for the case insensitivity and the converter, if it has already
+     *      been computed
+     */
+    TrieConfig(boolean allowOverlaps, boolean onlyWholeWords, boolean onlyWholeWordsWhiteSpaceSeparated,
+               boolean caseInsensitive, boolean treatMultipleSpacesAsOneSpace, boolean stopOnHit,
+               CharacterConverter characterConverter, FoldingTable foldingTable) {
         this.allowOverlaps = allowOverlaps;
+        this.onlyWholeWords = onlyWholeWords;
+        this.onlyWholeWordsWhiteSpaceSeparated = onlyWholeWordsWhiteSpaceSeparated;
+        this.caseInsensitive = caseInsensitive;
+        this.treatMultipleSpacesAsOneSpace = treatMultipleSpacesAsOneSpace;
+        this.stopOnHit = stopOnHit;
+        this.characterConverter = characterConverter;
+        this.foldingTable = foldingTable;
     }
 
-    public boolean isOnlyWholeWords() {
-        return onlyWholeWords;
+    public boolean isStopOnHit() { return stopOnHit; }
+
+    public boolean isAllowOverlaps() {
+        return allowOverlaps;
     }
 
-    public void setOnlyWholeWords(boolean onlyWholeWords) {
-        this.onlyWholeWords = onlyWholeWords;
+    public boolean isOnlyWholeWords() {
+        return onlyWholeWords;
     }
 
     public boolean isOnlyWholeWordsWhiteSpaceSeparated() { return onlyWholeWordsWhiteSpaceSeparated; }
 
-    public void setOnlyWholeWordsWhiteSpaceSeparated(boolean onlyWholeWordsWhiteSpaceSeparated) {
-        this.onlyWholeWordsWhiteSpaceSeparated = onlyWholeWordsWhiteSpaceSeparated;
-    }
-
     public boolean isCaseInsensitive() {
         return caseInsensitive;
     }
 
-    public void setCaseInsensitive(boolean caseInsensitive) {
-        this.caseInsensitive = caseInsensitive;
-    }
-
     public boolean isTreatMultipleSpacesAsOneSpace() {
         return treatMultipleSpacesAsOneSpace;
     }
 
-    public void setTreatMultipleSpacesAsOneSpace(boolean treatMultipleSpacesAsOneSpace) {
-        this.treatMultipleSpacesAsOneSpace = treatMultipleSpacesAsOneSpace;
-    }
-
     public CharacterConverter getCharacterConverter() {
         return characterConverter;
     }
 
-    public void setCharacterConverter(CharacterConverter characterConverter) {
-        this.characterConverter = characterConverter;
+    /**
+     * @return the folding of the characters for the case insensitivity and the converter, or null if the
+     *      characters are scanned as they are
+     */
+    FoldingTable getFoldingTable() {
+        FoldingTable table = this.foldingTable;
+        if (table == null && (caseInsensitive || characterConverter != null)) {
+            table = FoldingTable.of(caseInsensitive, characterConverter);
+            this.foldingTable = table;
+        }
+        return table;
     }
 }
@@ -0,0 +1,238 @@
+package org.ahocorasick.trie;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * <p>
+ *     Builds the goto structure and the failure states of the state graph, either on the calling thread or
+ *     spread over a {@link ForkJoinPool}. Both ways produce exactly the same graph, including the
+ *     breadth-first state ids.
+ * </p>
+ *
+ * <p>
+ *     The parallel insertion partitions the keywords by their first character, so that every task owns a
+ *     separate subtree of the root. The transitions of the root are added in the order in which their
+ *     characters first occur among the keywords, and every task adds its keywords in their order, so each
+ *     state receives its transitions in the same order as on the calling thread. The failure states are computed level by level: the failure state of a
+ *     state only depends on states of a lower depth, so all states of one depth can be handled at once.
+ * </p>
+ */
+final class TrieConstruction {
+
+    /** the number of keywords or states below which a task is not split any further */
+    private static final int SEQUENTIAL_THRESHOLD = 1024;
+
+    private TrieConstruction() {}
+
+    /**
+     * Adds the states for a keyword, which has already been folded.
+     *
+     * @return the state in which the keyword ends
+     */
+    static State insert(State rootState, String keyword) {
+        return insert(rootState, keyword, 0);
+    }
+
+    private static State insert(State state, String keyword, int from) {
+        for (int index = from; index < keyword.length(); index++) {
+            state = state.addState(keyword.charAt(index));
+        }
+        return state;
+    }
+
+    /**
+     * Adds the states for all keywords, one task per first character.
+     *
+     * @param keywords folded keywords of at least one character
+     * @return for every keyword, the state in which it ends
+     */
+    static State[] insert(State rootState, final List<String> keywords, ForkJoinPool pool) {
+        final int size = keywords.size();
+        // counting sort of the keyword indexes on their first character, keeping the order within a group
+        char[] firstCharacters = new char[size];
+        int[] groupStart = new int[Character.MAX_VALUE + 2];
+        for (int index = 0; index < size; index++) {
+            firstCharacters[index] = keywords.get(index).charAt(0);
+            groupStart[firstCharacters[index] + 1]++;
+        }
+        for (int character = 0; character <= Character.MAX_VALUE; character++) {
+            groupStart[character + 1] += groupStart[character];
+        }
+        final int[] order = new int[size];
+        int[] next = groupStart.clone();
+        for (int index = 0; index < size; index++) {
+            order[next[firstCharacters[index]]++] = index;
+        }
+
+        final State[] endStates = new State[size];
+        final List<RecursiveAction> tasks = new ArrayList<>();
+        boolean[] started = new boolean[Character.MAX_VALUE + 1];
+        for (int index = 0; index < size; index++) {
+            char character = firstCharacters[index];
+            if (started[character]) {
+                continue;
+            }
+            started[character] = true;
+            final int from = groupStart[character];
+            final int to = groupStart[character + 1];
+            // the root is shared by all groups, so its transitions are added up front, in the order in which
+            // the sequential insertion would add them: the slot order of the transitions, and so the state
+            // ids, depend on it
+            final State subtree = rootState.addState(character);
+            tasks.add(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    for (int position = from; position < to; position++) {
+                        int index = order[position];
+                        endStates[index] = insert(subtree, keywords.get(index), 1);
+                    }
+                }
+            });
+        }
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+        return endStates;
+    }
+
+    /**
+     * Sets the failure state and dictionary suffix of every state and numbers the states in breadth-first
+     * order.
+     *
+     * @param pool the pool to spread the work over, or null to do all work on the calling thread
+     * @return all states, indexed by their id
+     */
+    static List<State> constructFailureStates(State rootState, ForkJoinPool pool) {
+        List<State> states = new ArrayList<>();
+        rootState.setId(states.size());
+        states.add(rootState);
+
+        // First, set the fail state of all depth 1 states to the root state
+        List<State> level = new ArrayList<>(rootState.getStates());
+        for (State depthOneState : level) {
+            depthOneState.setFailure(rootState);
+        }
+
+        // Second, determine the fail state for all depth > 1 states, one depth at a time
+        while (!level.isEmpty()) {
+            for (State state : level) {
+                state.setId(states.size());
+                states.add(state);
+            }
+            if (pool == null || level.size() <= SEQUENTIAL_THRESHOLD) {
+                constructFailureStates(level, 0, level.size());
+            } else {
+                pool.invoke(new FailureStatesTask(level, 0, level.size()));
+            }
+            List<State> nextLevel = new ArrayList<>();
+            for (State state : level) {
+                nextLevel.addAll(state.getStates());
+            }
+            level = nextLevel;
+        }
+        return states;
+    }
+
+    /**
+     * Sets the failure states of the children of the given states, which must all have the same depth.
+     */
+    private static void constructFailureStates(List<State> parents, int from, int to) {
+        for (int index = from; index < to; index++) {
+            State currentState = parents.get(index);
+            for (char transition : currentState.getTransitionCharacters()) {
+                State targetState = currentState.nextState(transition);
+
+                State traceFailureState = currentState.failure();
+                while (traceFailureState.nextState(transition) == null) {
+                    traceFailureState = traceFailureState.failure();
+                }
+                State newFailureState = traceFailureState.nextState(transition);
+                targetState.setFailure(newFailureState);
+                targetState.setDictionarySuffix(newFailureState.emit().length == 0 ?
+                        newFailureState.dictionarySuffix() : newFailureState);
+            }
+        }
+    }
+
+    /**
+     * Replaces the transition maps of all states by the representation which fits them best.
+     *
+     * @param pool the pool to spread the work over, or null to do all work on the calling thread
+     */
+    static void compactTransitions(List<State> states, ForkJoinPool pool) {
+        if (pool == null) {
+            compactTransitions(states, 0, states.size());
+        } else {
+            pool.invoke(new CompactTransitionsTask(states, 0, states.size()));
+        }
+    }
+
+    private static void compactTransitions(List<State> states, int from, int to) {
+        for (int index = from; index < to; index++) {
+            states.get(index).compactTransitions();
+        }
+    }
+
+    private static class FailureStatesTask
+            extends RecursiveAction {
+
+        private static final long serialVersionUID = 2937041632874530218L;
+
+        private final List<State> parents;
+
+        private final int from;
+
+        private final int to;
+
+        private FailureStatesTask(List<State> parents, int from, int to) {
+            this.parents = parents;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SEQUENTIAL_THRESHOLD) {
+                constructFailureStates(parents, from, to);
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new FailureStatesTask(parents, from, middle), new FailureStatesTask(parents, middle, to));
+            }
+        }
+    }
+
+    private static class CompactTransitionsTask
+            extends RecursiveAction {
+
+        private static final long serialVersionUID = -6117024857204361873L;
+
+        private final List<State> states;
+
+        private final int from;
+
+        private final int to;
+
+        private CompactTransitionsTask(List<State> states, int from, int to) {
+            this.states = states;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SEQUENTIAL_THRESHOLD) {
+                compactTransitions(states, from, to);
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new CompactTransitionsTask(states, from, middle), new CompactTransitionsTask(states, middle, to));
+            }
+        }
+    }
+
+}
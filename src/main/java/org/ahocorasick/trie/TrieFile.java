@@ -0,0 +1,377 @@
+package org.ahocorasick.trie;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * <p>
+ *     Writes and reads a built {@link Trie} as a flat binary file, so that a large dictionary can be loaded
+ *     with a few bulk copies instead of being rebuilt or deserialized object by object. All numbers are
+ *     big-endian; an int array is written as its length followed by its elements, a char array likewise and
+ *     padded to a multiple of four bytes. The file consists of:
+ * </p>
+ *
+ * <ol>
+ *     <li>the magic number {@link #MAGIC} and the {@link #VERSION} of the format</li>
+ *     <li>the options as a bit set, see {@link #ALLOW_OVERLAPS} and on, followed by the folding table if
+ *         {@link #CHARACTER_CONVERTER} is set; see {@code FoldingTable.write}</li>
+ *     <li>the keyword table: the length of every keyword, then all keywords concatenated into one char
+ *         array</li>
+ *     <li>the kind of automaton, {@link #DOUBLE_ARRAY}, {@link #DFA} or {@link #RADIX}, followed by its
+ *         arrays; see {@code DoubleArrayAutomaton.write}, {@code DfaAutomaton.write} and
+ *         {@code RadixAutomaton.write}</li>
+ *     <li>the CRC-32 of everything before it</li>
+ * </ol>
+ *
+ * <p>
+ *     A trie running over the state graph is compiled into a double array when it is written; it matches
+ *     exactly the same way. The character converter itself is not stored but what it folds every character
+ *     into, so any converter can be saved; the loaded trie gets a converter which reads that table.
+ * </p>
+ */
+final class TrieFile {
+
+    /** "ACTR" */
+    static final int MAGIC = 0x41435452;
+
+    static final int VERSION = 2;
+
+    static final int ALLOW_OVERLAPS = 1;
+
+    static final int ONLY_WHOLE_WORDS = 1 << 1;
+
+    static final int ONLY_WHOLE_WORDS_WHITE_SPACE_SEPARATED = 1 << 2;
+
+    static final int CASE_INSENSITIVE = 1 << 3;
+
+    static final int TREAT_MULTIPLE_SPACES_AS_ONE_SPACE = 1 << 4;
+
+    static final int STOP_ON_HIT = 1 << 5;
+
+    static final int CHARACTER_CONVERTER = 1 << 6;
+
+    static final int DOUBLE_ARRAY = 1;
+
+    static final int DFA = 2;
+
+    static final int RADIX = 3;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private TrieFile() {}
+
+    static void write(Trie trie, OutputStream out) throws IOException {
+        Output output = new Output(out);
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+
+        TrieConfig trieConfig = trie.getTrieConfig();
+        output.writeInt((trieConfig.isAllowOverlaps() ? ALLOW_OVERLAPS : 0) |
+                (trieConfig.isOnlyWholeWords() ? ONLY_WHOLE_WORDS : 0) |
+                (trieConfig.isOnlyWholeWordsWhiteSpaceSeparated() ? ONLY_WHOLE_WORDS_WHITE_SPACE_SEPARATED : 0) |
+                (trieConfig.isCaseInsensitive() ? CASE_INSENSITIVE : 0) |
+                (trieConfig.isTreatMultipleSpacesAsOneSpace() ? TREAT_MULTIPLE_SPACES_AS_ONE_SPACE : 0) |
+                (trieConfig.isStopOnHit() ? STOP_ON_HIT : 0) |
+                (trieConfig.getCharacterConverter() != null ? CHARACTER_CONVERTER : 0));
+        if (trieConfig.getCharacterConverter() != null) {
+            trieConfig.getFoldingTable().write(output);
+        }
+
+        int[] lengths = new int[trie.getKeywordCount()];
+        StringBuilder characters = new StringBuilder();
+        for (int keywordId = 0; keywordId < lengths.length; keywordId++) {
+            String keyword = trie.getKeyword(keywordId);
+            lengths[keywordId] = keyword.length();
+            characters.append(keyword);
+        }
+        output.writeInts(lengths);
+        output.writeChars(characters.toString().toCharArray());
+
+        Automaton automaton = trie.getAutomaton();
+        if (automaton instanceof StateGraphAutomaton) {
+            automaton = DoubleArrayAutomaton.compile(((StateGraphAutomaton) automaton).getStates());
+        }
+        if (automaton instanceof DoubleArrayAutomaton) {
+            output.writeInt(DOUBLE_ARRAY);
+            ((DoubleArrayAutomaton) automaton).write(output);
+        } else if (automaton instanceof DfaAutomaton) {
+            output.writeInt(DFA);
+            ((DfaAutomaton) automaton).write(output);
+        } else if (automaton instanceof RadixAutomaton) {
+            output.writeInt(RADIX);
+            ((RadixAutomaton) automaton).write(output);
+        } else {
+            throw new IllegalStateException("Cannot write an automaton of type " + automaton.getClass().getName());
+        }
+        output.finish();
+    }
+
+    static Trie read(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            bytes.write(buffer, 0, read);
+        }
+        return read(SegmentedBuffer.wrap(ByteBuffer.wrap(bytes.toByteArray())), false);
+    }
+
+    /**
+     * Maps the file into memory and copies the arrays straight out of the mapping.
+     */
+    static Trie read(Path path) throws IOException {
+        return read(mapFile(path, SegmentedBuffer.SEGMENT_BITS), false);
+    }
+
+    /**
+     * Maps the file into memory and scans straight from the mapping, without copying the tables onto the
+     * heap. Only the keyword table and the alphabet are read. The checksum is not verified, so that pages
+     * are only read when a scan needs them.
+     *
+     * @param segmentBits the log2 of the size in which the file is mapped
+     */
+    static Trie map(Path path, int segmentBits) throws IOException {
+        return read(mapFile(path, segmentBits), true);
+    }
+
+    private static SegmentedBuffer mapFile(Path path, int segmentBits) throws IOException {
+        // the mapping stays valid after the channel is closed
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return SegmentedBuffer.map(channel, segmentBits);
+        }
+    }
+
+    /**
+     * @param mapped whether the automaton reads its tables in place rather than from heap copies
+     */
+    private static Trie read(SegmentedBuffer buffer, boolean mapped) throws IOException {
+        Input input = new Input(buffer, !mapped);
+        if (input.readInt() != MAGIC) {
+            throw new IOException("Not a trie file");
+        }
+        int version = input.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported trie file version " + version + ", expected " + VERSION);
+        }
+
+        int options = input.readInt();
+        FoldingTable foldingTable = (options & CHARACTER_CONVERTER) != 0 ? FoldingTable.read(input) : null;
+        TrieConfig trieConfig = new TrieConfig(
+                (options & ALLOW_OVERLAPS) != 0,
+                (options & ONLY_WHOLE_WORDS) != 0,
+                (options & ONLY_WHOLE_WORDS_WHITE_SPACE_SEPARATED) != 0,
+                (options & CASE_INSENSITIVE) != 0,
+                (options & TREAT_MULTIPLE_SPACES_AS_ONE_SPACE) != 0,
+                (options & STOP_ON_HIT) != 0,
+                foldingTable == null ? null : foldingTable.toCharacterConverter(),
+                foldingTable);
+
+        int[] lengths = input.readInts();
+        char[] characters = input.readChars();
+        if (characters == null) {
+            throw new IOException("Corrupt keyword table");
+        }
+        String[] keywords = new String[lengths.length];
+        int offset = 0;
+        for (int keywordId = 0; keywordId < lengths.length; keywordId++) {
+            if (lengths[keywordId] < 0 || offset + lengths[keywordId] > characters.length) {
+                throw new IOException("Corrupt keyword table");
+            }
+            keywords[keywordId] = new String(characters, offset, lengths[keywordId]);
+            offset += lengths[keywordId];
+        }
+        List<String> keywordTable = Collections.unmodifiableList(Arrays.asList(keywords));
+
+        Automaton automaton;
+        int kind = input.readInt();
+        switch (kind) {
+            case DOUBLE_ARRAY :
+                automaton = mapped ? MappedDoubleArrayAutomaton.read(input) : DoubleArrayAutomaton.read(input);
+                break;
+            case DFA :
+                automaton = mapped ? MappedDfaAutomaton.read(input) : DfaAutomaton.read(input);
+                break;
+            case RADIX :
+                // there is no mapped radix automaton, its tables are always copied onto the heap
+                automaton = RadixAutomaton.read(input);
+                break;
+            default :
+                throw new IOException("Unknown automaton kind " + kind);
+        }
+        return new Trie(trieConfig, automaton, keywordTable);
+    }
+
+    /**
+     * Buffers the output and keeps the checksum up to date.
+     */
+    static final class Output {
+
+        private final OutputStream out;
+
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+        private final CRC32 checksum = new CRC32();
+
+        private Output(OutputStream out) {
+            this.out = out;
+        }
+
+        void writeInt(int value) throws IOException {
+            if (this.buffer.remaining() < 4) {
+                flush();
+            }
+            this.buffer.putInt(value);
+        }
+
+        void writeInts(int[] values) throws IOException {
+            writeInt(values.length);
+            int offset = 0;
+            while (offset < values.length) {
+                if (this.buffer.remaining() < 4) {
+                    flush();
+                }
+                int count = Math.min(values.length - offset, this.buffer.remaining() / 4);
+                this.buffer.asIntBuffer().put(values, offset, count);
+                this.buffer.position(this.buffer.position() + count * 4);
+                offset += count;
+            }
+        }
+
+        /**
+         * @param values the characters, or null
+         */
+        void writeChars(char[] values) throws IOException {
+            if (values == null) {
+                writeInt(-1);
+                return;
+            }
+            writeInt(values.length);
+            int offset = 0;
+            while (offset < values.length) {
+                if (this.buffer.remaining() < 2) {
+                    flush();
+                }
+                int count = Math.min(values.length - offset, this.buffer.remaining() / 2);
+                this.buffer.asCharBuffer().put(values, offset, count);
+                this.buffer.position(this.buffer.position() + count * 2);
+                offset += count;
+            }
+            if ((values.length & 1) != 0) {
+                if (this.buffer.remaining() < 2) {
+                    flush();
+                }
+                this.buffer.putChar('\0');
+            }
+        }
+
+        private void flush() throws IOException {
+            this.checksum.update(this.buffer.array(), 0, this.buffer.position());
+            this.out.write(this.buffer.array(), 0, this.buffer.position());
+            this.buffer.clear();
+        }
+
+        private void finish() throws IOException {
+            flush();
+            this.buffer.putInt((int) this.checksum.getValue());
+            this.out.write(this.buffer.array(), 0, this.buffer.position());
+            this.buffer.clear();
+            this.out.flush();
+        }
+    }
+
+    /**
+     * Reads from a buffer holding a complete file.
+     */
+    static final class Input {
+
+        private final SegmentedBuffer buffer;
+
+        private long position = 0;
+
+        /** the position of the checksum */
+        private final long end;
+
+        /**
+         * @param verify whether to verify the checksum, which reads the whole file
+         */
+        private Input(SegmentedBuffer buffer, boolean verify) throws IOException {
+            if (buffer.size() < 12) {
+                throw new IOException("Not a trie file");
+            }
+            this.buffer = buffer;
+            this.end = buffer.size() - 4;
+            if (verify) {
+                CRC32 checksum = new CRC32();
+                byte[] chunk = new byte[BUFFER_SIZE];
+                for (long position = 0; position < this.end; position += chunk.length) {
+                    int length = (int) Math.min(chunk.length, this.end - position);
+                    buffer.getBytes(position, chunk, 0, length);
+                    checksum.update(chunk, 0, length);
+                }
+                if ((int) checksum.getValue() != buffer.getInt(this.end)) {
+                    throw new IOException("Trie file checksum mismatch");
+                }
+            }
+        }
+
+        int readInt() throws IOException {
+            checkRemaining(4);
+            int value = this.buffer.getInt(this.position);
+            this.position += 4;
+            return value;
+        }
+
+        int[] readInts() throws IOException {
+            int length = readInt();
+            checkRemaining(length * 4L);
+            int[] values = new int[length];
+            this.buffer.getInts(this.position, values);
+            this.position += length * 4L;
+            return values;
+        }
+
+        /**
+         * Skips an int array, returning a view which reads it in place.
+         */
+        MappedIntArray mapInts() throws IOException {
+            int length = readInt();
+            checkRemaining(length * 4L);
+            MappedIntArray values = new MappedIntArray(this.buffer, this.position, length);
+            this.position += length * 4L;
+            return values;
+        }
+
+        /**
+         * @return the characters, or null
+         */
+        char[] readChars() throws IOException {
+            int length = readInt();
+            if (length == -1) {
+                return null;
+            }
+            long padded = (length + 1L) & ~1L;
+            checkRemaining(padded * 2);
+            char[] values = new char[length];
+            this.buffer.getChars(this.position, values);
+            this.position += padded * 2;
+            return values;
+        }
+
+        private void checkRemaining(long bytes) throws IOException {
+            if (bytes < 0 || bytes > this.end - this.position) {
+                throw new IOException("Truncated trie file");
+            }
+        }
+    }
+
+}
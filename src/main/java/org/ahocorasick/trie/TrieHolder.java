@@ -0,0 +1,193 @@
+package org.ahocorasick.trie;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ *     Holds the current version of a dictionary which is reloaded while it is being used. A new trie is built
+ *     in the background and then swapped in atomically; scans which are still running on the old trie simply
+ *     finish on it, as a {@link Trie} is immutable. Readers fetch the trie once per scan through
+ *     {@link #get()} and never see a mix of two versions.
+ * </p>
+ *
+ * <p>
+ *     Every swap produces a new {@link Version} with an increasing number and the time spent building and
+ *     swapping, so that slow reloads can be noticed.
+ * </p>
+ *
+ * <p>
+ *     Reloads and swaps take effect in the order in which they were requested, not in the order in which
+ *     their builds finish. A reload whose build completes after a later reload or swap has been swapped in
+ *     is dropped, so an executor with several threads never brings back an older dictionary.
+ * </p>
+ */
+public class TrieHolder {
+
+    private final Executor executor;
+
+    /** hands out the sequence numbers of the reloads and swaps, in the order in which they are requested */
+    private final AtomicLong requested = new AtomicLong();
+
+    private volatile Version current;
+
+    /** the sequence number of the reload or swap which produced the current version; guarded by this */
+    private long currentSequence = 0;
+
+    /**
+     * @param trie the initial trie, which becomes version 1
+     * @param executor runs the builds started by {@link #reload(Callable)}
+     */
+    public TrieHolder(Trie trie, Executor executor) {
+        if (trie == null) {
+            throw new NullPointerException("trie");
+        }
+        if (executor == null) {
+            throw new NullPointerException("executor");
+        }
+        this.executor = executor;
+        this.current = new Version(trie, 1, 0, 0, System.currentTimeMillis());
+    }
+
+    /**
+     * @return the current trie; keep using the returned instance for the whole scan
+     */
+    public Trie get() {
+        return this.current.getTrie();
+    }
+
+    public Version getVersion() {
+        return this.current;
+    }
+
+    /**
+     * Builds a new trie on the executor and swaps it in once it is complete. If the build fails, the current
+     * trie stays in place and the failure is reported through the returned future. If a reload or swap
+     * requested later has already been swapped in, the build is skipped or its result is dropped.
+     *
+     * @param build builds the new trie, typically by running a {@link Trie.TrieBuilder}
+     * @return the version which was swapped in, or the later version which superseded the reload
+     */
+    public Future<Version> reload(final Callable<Trie> build) {
+        final long sequence = this.requested.incrementAndGet();
+        FutureTask<Version> task = new FutureTask<>(new Callable<Version>() {
+            @Override
+            public Version call() throws Exception {
+                Version superseding = supersedingVersion(sequence);
+                if (superseding != null) {
+                    return superseding;
+                }
+                long start = System.nanoTime();
+                Trie trie = build.call();
+                return swap(trie, sequence, System.nanoTime() - start);
+            }
+        });
+        this.executor.execute(task);
+        return task;
+    }
+
+    /**
+     * Swaps in a trie which has already been built.
+     *
+     * @return the new version
+     */
+    public Version swap(Trie trie) {
+        if (trie == null) {
+            throw new NullPointerException("trie");
+        }
+        return swap(trie, this.requested.incrementAndGet(), 0);
+    }
+
+    /**
+     * @return the current version if it was produced by a reload or swap requested after the sequence
+     *      number, or null
+     */
+    private synchronized Version supersedingVersion(long sequence) {
+        return this.currentSequence > sequence ? this.current : null;
+    }
+
+    private Version swap(Trie trie, long sequence, long buildNanos) {
+        if (trie == null) {
+            throw new NullPointerException("trie");
+        }
+        long start = System.nanoTime();
+        // swaps are serialized so that version numbers follow the order in which the tries became current
+        synchronized (this) {
+            if (this.currentSequence > sequence) {
+                return this.current;
+            }
+            this.currentSequence = sequence;
+            Version version = new Version(trie, this.current.getNumber() + 1, buildNanos,
+                    System.nanoTime() - start, System.currentTimeMillis());
+            this.current = version;
+            return version;
+        }
+    }
+
+    /**
+     * One version of the dictionary, with the timings of the reload which produced it.
+     */
+    public static final class Version {
+
+        private final Trie trie;
+
+        private final long number;
+
+        private final long buildNanos;
+
+        private final long swapNanos;
+
+        private final long swappedAt;
+
+        private Version(Trie trie, long number, long buildNanos, long swapNanos, long swappedAt) {
+            this.trie = trie;
+            this.number = number;
+            this.buildNanos = buildNanos;
+            this.swapNanos = swapNanos;
+            this.swappedAt = swappedAt;
+        }
+
+        public Trie getTrie() {
+            return this.trie;
+        }
+
+        /**
+         * @return 1 for the initial trie, increased by one for every swap
+         */
+        public long getNumber() {
+            return this.number;
+        }
+
+        /**
+         * @return the time spent building the trie, or 0 if it was swapped in ready-made
+         */
+        public long getBuildNanos() {
+            return this.buildNanos;
+        }
+
+        /**
+         * @return the time between the end of the build and the trie becoming current, including waiting
+         *      for concurrent swaps
+         */
+        public long getSwapNanos() {
+            return this.swapNanos;
+        }
+
+        /**
+         * @return the wall clock time, in milliseconds since the epoch, at which the trie became current
+         */
+        public long getSwappedAt() {
+            return this.swappedAt;
+        }
+
+        @Override
+        public String toString() {
+            return "version " + this.number + ", built in " + this.buildNanos / 1000000 + " ms, swapped in " +
+                    this.swapNanos / 1000 + " us";
+        }
+    }
+
+}
@@ -0,0 +1,137 @@
+package org.ahocorasick.trie;
+
+/**
+ * <p>
+ *     Describes how the transitions of a trie's states are stored and roughly how much heap they take.
+ *     Obtained from {@link Trie.TrieBuilder#getStatistics()}, it allows the footprint of different build
+ *     options to be compared on a real dictionary.
+ * </p>
+ *
+ * <p>
+ *     The byte counts are estimates, assuming compressed pointers. Emitted keywords are not included.
+ * </p>
+ *
+ * <p>
+ *     Once the trie is built, the time {@link Trie.TrieBuilder#build()} took gives the build throughput in
+ *     keywords per second. The throughput of scans depends on the text rather than on the trie and is not
+ *     measured here; time {@link Trie#parseText(CharSequence)} on representative text for that.
+ * </p>
+ */
+public class TrieStatistics {
+
+    /** approximate size of a State object, without its transitions and emits */
+    private static final int STATE_SIZE = 40;
+
+    private int leafStates;
+
+    private int singleStates;
+
+    private int directStates;
+
+    private int sortedStates;
+
+    private int hashedStates;
+
+    private long transitionBytes;
+
+    private int keywordCount;
+
+    private long buildNanos;
+
+    void addLeaf() {
+        this.leafStates++;
+    }
+
+    void addSingle() {
+        this.singleStates++;
+    }
+
+    void add(Transitions transitions) {
+        if (transitions instanceof Transitions.DirectTransitions) {
+            this.directStates++;
+        } else if (transitions instanceof Transitions.SortedTransitions) {
+            this.sortedStates++;
+        } else {
+            this.hashedStates++;
+        }
+        this.transitionBytes += transitions.footprint();
+    }
+
+    void setBuild(int keywordCount, long buildNanos) {
+        this.keywordCount = keywordCount;
+        this.buildNanos = buildNanos;
+    }
+
+    public int getStateCount() {
+        return this.leafStates + this.singleStates + this.directStates + this.sortedStates + this.hashedStates;
+    }
+
+    /** states without any transitions */
+    public int getLeafStates() {
+        return this.leafStates;
+    }
+
+    /** states with exactly one transition, held inline in the state */
+    public int getSingleStates() {
+        return this.singleStates;
+    }
+
+    /** states with their transitions in a table indexed by character */
+    public int getDirectStates() {
+        return this.directStates;
+    }
+
+    /** states with their transitions in sorted arrays */
+    public int getSortedStates() {
+        return this.sortedStates;
+    }
+
+    /** states with their transitions in a hash map */
+    public int getHashedStates() {
+        return this.hashedStates;
+    }
+
+    /** estimated bytes taken by the transition structures, not counting the states themselves */
+    public long getTransitionBytes() {
+        return this.transitionBytes;
+    }
+
+    /** estimated bytes taken by the states and their transitions */
+    public long getEstimatedBytes() {
+        return (long) getStateCount() * STATE_SIZE + this.transitionBytes;
+    }
+
+    /** the number of keywords added so far */
+    public int getKeywordCount() {
+        return this.keywordCount;
+    }
+
+    /** the time spent in {@link Trie.TrieBuilder#build()}, or 0 if the trie has not been built yet */
+    public long getBuildNanos() {
+        return this.buildNanos;
+    }
+
+    /**
+     * @return the keywords built per second, or 0 if the trie has not been built yet
+     */
+    public double getKeywordsPerSecond() {
+        return this.buildNanos == 0 ? 0 : this.keywordCount * 1e9 / this.buildNanos;
+    }
+
+    /**
+     * Describes the structure only, leaving out the build time, so that the statistics of two builds of
+     * the same dictionary compare equal.
+     */
+    @Override
+    public String toString() {
+        return "keywords=" + this.keywordCount +
+                ", states=" + getStateCount() +
+                " (leaf=" + this.leafStates +
+                ", single=" + this.singleStates +
+                ", direct=" + this.directStates +
+                ", sorted=" + this.sortedStates +
+                ", hashed=" + this.hashedStates +
+                "), estimatedBytes=" + getEstimatedBytes();
+    }
+
+}
@@ -0,0 +1,42 @@
+package org.ahocorasick.trie;
+
+import java.util.List;
+
+/**
+ * An emit of a {@link Utf8Trie}. The start and end are the offsets of the first and the last byte of the match;
+ * the offsets of its first and last character, as they would be in the decoded text, are kept alongside.
+ * The size is counted in characters, so that removing overlaps prefers the same matches as a {@link Trie}.
+ */
+public class Utf8Emit extends Emit {
+
+    private final int charStart;
+
+    private final int charEnd;
+
+    Utf8Emit(final int start, final int end, final int charStart, final int charEnd, final int keywordId,
+             final List<String> keywords) {
+        super(start, end, keywordId, keywords);
+        this.charStart = charStart;
+        this.charEnd = charEnd;
+    }
+
+    /**
+     * @return the offset of the first character of the match in the decoded text
+     */
+    public int getCharStart() {
+        return this.charStart;
+    }
+
+    /**
+     * @return the offset of the last character of the match in the decoded text
+     */
+    public int getCharEnd() {
+        return this.charEnd;
+    }
+
+    @Override
+    public int size() {
+        return this.charEnd - this.charStart + 1;
+    }
+
+}
@@ -0,0 +1,593 @@
+package org.ahocorasick.trie;
+
+import org.ahocorasick.interval.IntervalTree;
+import org.ahocorasick.interval.Intervalable;
+import org.ahocorasick.trie.handler.DefaultEmitHandler;
+import org.ahocorasick.trie.handler.EmitHandler;
+import org.ahocorasick.trie.handler.LongEmitHandler;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * <p>
+ *     A trie which scans UTF-8 encoded text as bytes, without decoding it into a String first. Created by
+ *     {@link Trie.TrieBuilder#buildUtf8()}, it matches exactly like the {@link Trie} built from the same keywords
+ *     and options would match the decoded text.
+ * </p>
+ *
+ * <p>
+ *     The automaton runs over the UTF-8 encoding of the keywords, one transition per byte, so it is compiled
+ *     like any other trie over an alphabet of at most 256 symbols. Emits are {@link Utf8Emit}s holding the byte
+ *     offsets of the match and, alongside, its character offsets in the decoded text.
+ * </p>
+ *
+ * <p>
+ *     A case sensitive trie feeds every byte straight into the automaton. A case insensitive trie lower-cases
+ *     ASCII bytes through a table and decodes only the other characters, to lower-case and re-encode them.
+ *     Malformed input is matched byte for byte: it never matches a keyword, where the decoded text would hold
+ *     replacement characters. A character converter and {@code treatMultipleSpacesAsOneSpace()} are not
+ *     supported.
+ * </p>
+ */
+public class Utf8Trie
+        implements Serializable {
+
+    private static final long serialVersionUID = 4125503327196741098L;
+
+    /** ASCII bytes as lower-cased by {@link Character#toLowerCase(char)} */
+    private static final char[] LOWER_CASE = new char[0x80];
+
+    static {
+        for (char character = 0; character < LOWER_CASE.length; character++) {
+            LOWER_CASE[character] = Character.toLowerCase(character);
+        }
+    }
+
+    private final TrieConfig trieConfig;
+
+    private final Automaton automaton;
+
+    private final List<String> keywords;
+
+    /** the number of characters of each keyword, as matched */
+    private final int[] keywordLengths;
+
+    /** the number of bytes of the UTF-8 encoding of each keyword */
+    private final int[] keywordByteLengths;
+
+    /** a power of two which is at least the length of the longest keyword */
+    private final int charStartsSize;
+
+    Utf8Trie(TrieConfig trieConfig, Automaton automaton, List<String> keywords, int[] keywordLengths,
+             int[] keywordByteLengths) {
+        this.trieConfig = trieConfig;
+        this.automaton = automaton;
+        this.keywords = keywords;
+        this.keywordLengths = keywordLengths;
+        this.keywordByteLengths = keywordByteLengths;
+        int maximumLength = 1;
+        for (int length : keywordLengths) {
+            maximumLength = Math.max(maximumLength, length);
+        }
+        this.charStartsSize = Integer.highestOneBit(maximumLength * 2 - 1);
+    }
+
+    /**
+     * Builds the state graph of the UTF-8 encodings of the keywords of a state graph, with one transition per
+     * byte. The keywords are encoded as they are spelled by the path to their state, so the byte graph
+     * accepts exactly the encodings of the texts the state graph accepts.
+     *
+     * @param keywordLengths receives the number of characters of each keyword
+     * @param keywordByteLengths receives the number of bytes of each keyword
+     * @return the root state of the byte graph
+     */
+    static State encode(State rootState, int[] keywordLengths, int[] keywordByteLengths) {
+        State byteRootState = new State();
+        char[] path = new char[16];
+        byte[] bytes = new byte[48];
+        // depth-first, keeping the path from the root
+        State[] pending = new State[16];
+        char[] pendingCharacters = new char[16];
+        int size = 0;
+        pending[size++] = rootState;
+        while (size > 0) {
+            State state = pending[--size];
+            int depth = state.getDepth();
+            if (depth > path.length) {
+                path = Arrays.copyOf(path, path.length * 2);
+                bytes = new byte[path.length * 3];
+            }
+            if (depth > 0) {
+                path[depth - 1] = pendingCharacters[size];
+            }
+            if (state.emit().length > 0) {
+                int length = encode(path, depth, bytes);
+                State byteState = byteRootState;
+                for (int index = 0; index < length; index++) {
+                    byteState = byteState.addState((char) (bytes[index] & 0xFF));
+                }
+                for (int keywordId : state.emit()) {
+                    byteState.addEmit(keywordId);
+                    keywordLengths[keywordId] = depth;
+                    keywordByteLengths[keywordId] = length;
+                }
+            }
+            for (char transition : state.getTransitionCharacters()) {
+                if (size == pending.length) {
+                    pending = Arrays.copyOf(pending, size * 2);
+                    pendingCharacters = Arrays.copyOf(pendingCharacters, size * 2);
+                }
+                pendingCharacters[size] = transition;
+                pending[size++] = state.nextStateIgnoreRootState(transition);
+            }
+        }
+        return byteRootState;
+    }
+
+    /**
+     * Encodes the characters as UTF-8. A surrogate which is not part of a pair is encoded on its own, as
+     * three bytes which never occur in well-formed UTF-8.
+     *
+     * @return the number of bytes
+     */
+    private static int encode(char[] characters, int length, byte[] bytes) {
+        int size = 0;
+        for (int index = 0; index < length; index++) {
+            char character = characters[index];
+            if (Character.isHighSurrogate(character) && index + 1 < length &&
+                    Character.isLowSurrogate(characters[index + 1])) {
+                int codePoint = Character.toCodePoint(character, characters[++index]);
+                bytes[size++] = (byte) (0xF0 | codePoint >>> 18);
+                bytes[size++] = (byte) (0x80 | (codePoint >>> 12 & 0x3F));
+                bytes[size++] = (byte) (0x80 | (codePoint >>> 6 & 0x3F));
+                bytes[size++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (character < 0x80) {
+                bytes[size++] = (byte) character;
+            } else if (character < 0x800) {
+                bytes[size++] = (byte) (0xC0 | character >>> 6);
+                bytes[size++] = (byte) (0x80 | (character & 0x3F));
+            } else {
+                bytes[size++] = (byte) (0xE0 | character >>> 12);
+                bytes[size++] = (byte) (0x80 | (character >>> 6 & 0x3F));
+                bytes[size++] = (byte) (0x80 | (character & 0x3F));
+            }
+        }
+        return size;
+    }
+
+    public String getKeyword(int keywordId) {
+        return this.keywords.get(keywordId);
+    }
+
+    public int getKeywordCount() {
+        return this.keywords.size();
+    }
+
+    public List<Emit> parseBytes(byte[] bytes) {
+        return parseBytes(ByteBuffer.wrap(bytes));
+    }
+
+    public List<Emit> parseBytes(byte[] bytes, int offset, int length) {
+        return parseBytes(ByteBuffer.wrap(bytes, offset, length));
+    }
+
+    /**
+     * Scans the bytes from the position of the buffer up to its limit, without moving its position. Heap
+     * and direct buffers are read in place. The offsets of the emits are relative to the position.
+     */
+    @SuppressWarnings("unchecked")
+    public List<Emit> parseBytes(ByteBuffer bytes) {
+        DefaultEmitHandler emitHandler = new DefaultEmitHandler();
+        parseBytes(bytes, emitHandler);
+
+        List<Emit> collectedEmits = emitHandler.getEmits();
+
+        if (trieConfig.isOnlyWholeWords()) {
+            removePartialMatches(bytes, collectedEmits);
+        }
+
+        if (trieConfig.isOnlyWholeWordsWhiteSpaceSeparated()) {
+            removePartialMatchesWhiteSpaceSeparated(bytes, collectedEmits);
+        }
+
+        if (!trieConfig.isAllowOverlaps()) {
+            IntervalTree intervalTree = new IntervalTree((List<Intervalable>) (List<?>) collectedEmits);
+            intervalTree.removeOverlaps((List<Intervalable>) (List<?>) collectedEmits);
+        }
+
+        return collectedEmits;
+    }
+
+    public boolean containsMatch(byte[] bytes) {
+        return !parseBytes(bytes).isEmpty();
+    }
+
+    public boolean containsMatch(ByteBuffer bytes) {
+        return !parseBytes(bytes).isEmpty();
+    }
+
+    /**
+     * Scans the bytes from the position of the buffer up to its limit, without moving its position, and
+     * hands every match to the handler in the order in which it ends.
+     */
+    public void parseBytes(ByteBuffer bytes, EmitHandler emitHandler) {
+        new Scan(emitHandler, null).scan(bytes, bytes.position(), bytes.limit(), bytes.limit(), -bytes.position());
+    }
+
+    /**
+     * Scans a file through memory mapping, see {@link #parseFile(FileChannel)}.
+     */
+    public List<LongEmit> parseFile(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return parseFile(channel);
+        }
+    }
+
+    /**
+     * Scans the whole file through memory mapping, applying the options of the trie to the matches like
+     * {@link #parseBytes(ByteBuffer)}. The offsets are longs, so the file may exceed 2 GB. The bytes around
+     * each match which the whole word options need are read from the channel once the scan is done.
+     */
+    public List<LongEmit> parseFile(FileChannel channel) throws IOException {
+        final List<LongEmit> collectedEmits = new ArrayList<>();
+        parseFile(channel, new LongEmitHandler() {
+            @Override
+            public void emit(LongEmit emit) {
+                collectedEmits.add(emit);
+            }
+        });
+
+        if (trieConfig.isOnlyWholeWords() || trieConfig.isOnlyWholeWordsWhiteSpaceSeparated()) {
+            removePartialMatches(channel, collectedEmits);
+        }
+
+        if (!trieConfig.isAllowOverlaps()) {
+            return removeOverlaps(collectedEmits);
+        }
+
+        return collectedEmits;
+    }
+
+    /**
+     * Scans the whole file, mapping it one window at a time, and hands every match to the handler in the
+     * order in which it ends. The state of the automaton is carried from one window to the next, so matches
+     * which span the boundary of two windows are found. Only a single window is mapped at any time.
+     */
+    public void parseFile(FileChannel channel, LongEmitHandler emitHandler) throws IOException {
+        parseFile(channel, emitHandler, SegmentedBuffer.SEGMENT_BITS);
+    }
+
+    /**
+     * @param windowBits the log2 of the size of the windows in which the file is mapped
+     */
+    void parseFile(FileChannel channel, LongEmitHandler emitHandler, int windowBits) throws IOException {
+        Scan scan = new Scan(null, emitHandler);
+        long size = channel.size();
+        long position = 0;
+        while (position < size && !scan.stopped) {
+            long to = Math.min(size, position + (1L << windowBits));
+            // a character which starts in the window may end in the next three bytes
+            long limit = Math.min(size, to + 3);
+            ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, limit - position);
+            position += scan.scan(window, 0, (int) (to - position), (int) (limit - position), position);
+        }
+    }
+
+    /**
+     * The state of a scan, which is carried from one buffer to the next.
+     */
+    private final class Scan {
+
+        private final EmitHandler emitHandler;
+
+        private final LongEmitHandler longEmitHandler;
+
+        /** the byte offsets of the recent characters if the scan lower-cases the text, or null */
+        private final long[] charStarts;
+
+        private int currentState = automaton.getRootState();
+
+        /** the offset of the last character scanned */
+        private long charIndex = -1;
+
+        private boolean stopped = false;
+
+        private Scan(EmitHandler emitHandler, LongEmitHandler longEmitHandler) {
+            this.emitHandler = emitHandler;
+            this.longEmitHandler = longEmitHandler;
+            this.charStarts = trieConfig.isCaseInsensitive() ? new long[charStartsSize] : null;
+        }
+
+        /**
+         * Scans the characters which start before the given end.
+         *
+         * @param limit the end of the bytes which can be read, so that a character which starts before the end
+         *      can be decoded
+         * @param base the offset to add to a position in the buffer to get the offset of the emits
+         * @return the position at which the next scan must start
+         */
+        private int scan(ByteBuffer bytes, int from, int to, int limit, long base) {
+            return this.charStarts == null ? scanExact(bytes, from, to, base) : scanFolded(bytes, from, to, limit, base);
+        }
+
+        /**
+         * Feeds every byte into the automaton as it is. Keywords are whole characters, so the character
+         * offsets follow from counting the bytes which start a character.
+         */
+        private int scanExact(ByteBuffer bytes, int from, int to, long base) {
+            for (int position = from; position < to; position++) {
+                int value = bytes.get(position) & 0xFF;
+                if ((value & 0xC0) != 0x80) {
+                    // a four byte sequence decodes into a surrogate pair
+                    this.charIndex += value >= 0xF0 ? 2 : 1;
+                }
+                this.currentState = automaton.nextState(this.currentState, (char) value);
+                if (storeEmits(base + position, this.currentState) && trieConfig.isStopOnHit()) {
+                    this.stopped = true;
+                    break;
+                }
+            }
+            return to;
+        }
+
+        /**
+         * Feeds the lower-cased text into the automaton one character at a time. Lower-casing may change the
+         * number of bytes of a character, so the start offset of every recent character is kept in a ring.
+         */
+        private int scanFolded(ByteBuffer bytes, int from, int to, int limit, long base) {
+            int mask = this.charStarts.length - 1;
+            int position = from;
+            while (position < to) {
+                int value = bytes.get(position) & 0xFF;
+                int length = sequenceLength(bytes, position, limit);
+                this.charStarts[(int) ++this.charIndex & mask] = base + position;
+                if (length == 1) {
+                    this.currentState = automaton.nextState(this.currentState,
+                            value < 0x80 ? LOWER_CASE[value] : (char) value);
+                } else if (length == 4) {
+                    this.charStarts[(int) ++this.charIndex & mask] = base + position;
+                    for (int index = 0; index < length; index++) {
+                        this.currentState = automaton.nextState(this.currentState,
+                                (char) (bytes.get(position + index) & 0xFF));
+                    }
+                } else {
+                    char character = (char) decode(bytes, position, length);
+                    this.currentState = nextState(this.currentState, Character.toLowerCase(character));
+                }
+                position += length;
+                if (storeEmits(base + position - 1, this.currentState) && trieConfig.isStopOnHit()) {
+                    this.stopped = true;
+                    break;
+                }
+            }
+            return position;
+        }
+
+        /**
+         * Emits the keywords of the state and of its dictionary suffixes, shortest keyword first.
+         *
+         * @param end the offset of the last byte scanned
+         */
+        private boolean storeEmits(long end, int state) {
+            boolean emitted = false;
+            int dictionarySuffix = automaton.dictionarySuffix(state);
+            if (dictionarySuffix != Automaton.NO_STATE) {
+                emitted = storeEmits(end, dictionarySuffix);
+            }
+            int emitCount = automaton.emitCount(state);
+            for (int index = 0; index < emitCount; index++) {
+                int keywordId = automaton.emit(state, index);
+                long charStart = this.charIndex - keywordLengths[keywordId] + 1;
+                long start = this.charStarts == null ? end - keywordByteLengths[keywordId] + 1 :
+                        this.charStarts[(int) charStart & (this.charStarts.length - 1)];
+                if (this.emitHandler != null) {
+                    this.emitHandler.emit(new Utf8Emit((int) start, (int) end, (int) charStart, (int) this.charIndex,
+                            keywordId, keywords));
+                } else {
+                    this.longEmitHandler.emit(new LongEmit(start, end, charStart, this.charIndex, keywordId, keywords));
+                }
+                emitted = true;
+            }
+            return emitted;
+        }
+    }
+
+    /**
+     * Feeds the UTF-8 encoding of a character other than a surrogate into the automaton.
+     */
+    private int nextState(int currentState, char character) {
+        if (character < 0x80) {
+            return this.automaton.nextState(currentState, character);
+        }
+        if (character < 0x800) {
+            currentState = this.automaton.nextState(currentState, (char) (0xC0 | character >>> 6));
+        } else {
+            currentState = this.automaton.nextState(currentState, (char) (0xE0 | character >>> 12));
+            currentState = this.automaton.nextState(currentState, (char) (0x80 | (character >>> 6 & 0x3F)));
+        }
+        return this.automaton.nextState(currentState, (char) (0x80 | (character & 0x3F)));
+    }
+
+    private void removePartialMatches(ByteBuffer bytes, List<Emit> collectedEmits) {
+        List<Emit> removeEmits = new ArrayList<>();
+        for (Emit emit : collectedEmits) {
+            if (isPartialMatch(charBefore(bytes, emit.getStart()), charAfter(bytes, emit.getEnd()))) {
+                removeEmits.add(emit);
+            }
+        }
+        collectedEmits.removeAll(removeEmits);
+    }
+
+    private void removePartialMatchesWhiteSpaceSeparated(ByteBuffer bytes, List<Emit> collectedEmits) {
+        int size = bytes.remaining();
+        List<Emit> removeEmits = new ArrayList<>();
+        for (Emit emit : collectedEmits) {
+            if (!isWhiteSpaceSeparated(emit.getStart() == 0, charBefore(bytes, emit.getStart()),
+                    emit.getEnd() + 1 == size, charAfter(bytes, emit.getEnd()))) {
+                removeEmits.add(emit);
+            }
+        }
+        collectedEmits.removeAll(removeEmits);
+    }
+
+    /**
+     * Applies the whole word options, reading the few bytes on either side of each match from the channel.
+     */
+    private void removePartialMatches(FileChannel channel, List<LongEmit> collectedEmits) throws IOException {
+        long size = channel.size();
+        ByteBuffer before = ByteBuffer.allocate(3);
+        ByteBuffer after = ByteBuffer.allocate(3);
+        List<LongEmit> wholeMatches = new ArrayList<>(collectedEmits.size());
+        for (LongEmit emit : collectedEmits) {
+            read(channel, before, Math.max(0, emit.getStart() - 3), emit.getStart());
+            read(channel, after, emit.getEnd() + 1, Math.min(size, emit.getEnd() + 4));
+            int characterBefore = charBefore(before, before.remaining());
+            int characterAfter = charAfter(after, -1);
+            if (trieConfig.isOnlyWholeWords() && isPartialMatch(characterBefore, characterAfter)) {
+                continue;
+            }
+            if (trieConfig.isOnlyWholeWordsWhiteSpaceSeparated() && !isWhiteSpaceSeparated(emit.getStart() == 0,
+                    characterBefore, emit.getEnd() + 1 == size, characterAfter)) {
+                continue;
+            }
+            wholeMatches.add(emit);
+        }
+        collectedEmits.clear();
+        collectedEmits.addAll(wholeMatches);
+    }
+
+    private static void read(FileChannel channel, ByteBuffer buffer, long from, long to) throws IOException {
+        buffer.clear();
+        buffer.limit((int) (to - from));
+        while (buffer.hasRemaining() && channel.read(buffer, from + buffer.position()) != -1) {
+            // keep reading until the range is complete
+        }
+        buffer.flip();
+    }
+
+    private static boolean isPartialMatch(int before, int after) {
+        return (before != -1 && Character.isAlphabetic(before)) || (after != -1 && Character.isAlphabetic(after));
+    }
+
+    private static boolean isWhiteSpaceSeparated(boolean atStart, int before, boolean atEnd, int after) {
+        return (atStart || (before != -1 && Character.isWhitespace(before))) &&
+                (atEnd || (after != -1 && Character.isWhitespace(after)));
+    }
+
+    /**
+     * Removes overlapping matches exactly like {@link IntervalTree#removeOverlaps(List)}: the longest matches,
+     * then the left-most, are kept first. Matches with the same offsets are all kept.
+     *
+     * @return the remaining matches by position
+     */
+    private static List<LongEmit> removeOverlaps(List<LongEmit> emits) {
+        List<LongEmit> sorted = new ArrayList<>(emits);
+        Collections.sort(sorted, new Comparator<LongEmit>() {
+            @Override
+            public int compare(LongEmit emit, LongEmit other) {
+                int comparison = Long.compare(other.size(), emit.size());
+                return comparison != 0 ? comparison : Long.compare(emit.getStart(), other.getStart());
+            }
+        });
+        TreeMap<Long, LongEmit> kept = new TreeMap<>();
+        List<LongEmit> remaining = new ArrayList<>();
+        for (LongEmit emit : sorted) {
+            Map.Entry<Long, LongEmit> floor = kept.floorEntry(emit.getEnd());
+            if (floor != null && floor.getValue().getEnd() >= emit.getStart()) {
+                LongEmit overlapping = floor.getValue();
+                if (overlapping.getStart() != emit.getStart() || overlapping.getEnd() != emit.getEnd()) {
+                    continue;
+                }
+            } else {
+                kept.put(emit.getStart(), emit);
+            }
+            remaining.add(emit);
+        }
+        Collections.sort(remaining, new Comparator<LongEmit>() {
+            @Override
+            public int compare(LongEmit emit, LongEmit other) {
+                return Long.compare(emit.getStart(), other.getStart());
+            }
+        });
+        return remaining;
+    }
+
+    /**
+     * @param start an offset relative to the position of the buffer
+     * @return the character ending just before the offset, or -1 if there is none, it is half of a surrogate
+     *      pair or it is malformed
+     */
+    private static int charBefore(ByteBuffer bytes, int start) {
+        int base = bytes.position();
+        int end = base + start;
+        int position = end - 1;
+        while (position > base && end - position < 3 && (bytes.get(position) & 0xC0) == 0x80) {
+            position--;
+        }
+        if (position < base || sequenceLength(bytes, position, end) != end - position) {
+            return -1;
+        }
+        return decode(bytes, position, end - position);
+    }
+
+    /**
+     * @param end an offset relative to the position of the buffer
+     * @return the character starting just after the offset, or -1 as for {@link #charBefore(ByteBuffer, int)}
+     */
+    private static int charAfter(ByteBuffer bytes, int end) {
+        int position = bytes.position() + end + 1;
+        if (position >= bytes.limit()) {
+            return -1;
+        }
+        return decode(bytes, position, sequenceLength(bytes, position, bytes.limit()));
+    }
+
+    /**
+     * @return the number of bytes of the well-formed sequence at the position, or 1 if it is malformed
+     */
+    private static int sequenceLength(ByteBuffer bytes, int position, int limit) {
+        int lead = bytes.get(position) & 0xFF;
+        int length = lead < 0xC2 ? 1 : lead < 0xE0 ? 2 : lead < 0xF0 ? 3 : lead < 0xF5 ? 4 : 1;
+        if (position + length > limit) {
+            return 1;
+        }
+        for (int index = 1; index < length; index++) {
+            if ((bytes.get(position + index) & 0xC0) != 0x80) {
+                return 1;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * @param length the length of the sequence, as returned by {@link #sequenceLength(ByteBuffer, int, int)}
+     * @return the character, or -1 if the sequence is malformed or encodes a surrogate pair
+     */
+    private static int decode(ByteBuffer bytes, int position, int length) {
+        int lead = bytes.get(position) & 0xFF;
+        if (length == 1) {
+            return lead < 0x80 ? lead : -1;
+        }
+        if (length == 4) {
+            return -1;
+        }
+        int character = lead & (length == 2 ? 0x1F : 0x0F);
+        for (int index = 1; index < length; index++) {
+            character = character << 6 | (bytes.get(position + index) & 0x3F);
+        }
+        return character;
+    }
+
+}
@@ -0,0 +1,59 @@
+package org.ahocorasick.trie.flow;
+
+/**
+ * <p>
+ *     The interfaces of a reactive stream with backpressure, shaped exactly as those of
+ *     java.util.concurrent.Flow, which is not available on the Java versions this library supports. A
+ *     subscriber receives no more items than it has asked for through {@link Subscription#request(long)}.
+ * </p>
+ *
+ * <p>
+ *     On Java 9 and later, a JDK publisher or subscriber is connected by forwarding each method to the one of
+ *     the same name.
+ * </p>
+ */
+public final class Flow {
+
+    private Flow() {
+    }
+
+    public interface Publisher<T> {
+
+        /**
+         * Adds the subscriber, which first receives its {@link Subscription} through
+         * {@link Subscriber#onSubscribe(Subscription)}.
+         */
+        void subscribe(Subscriber<? super T> subscriber);
+    }
+
+    public interface Subscriber<T> {
+
+        void onSubscribe(Subscription subscription);
+
+        void onNext(T item);
+
+        void onError(Throwable throwable);
+
+        void onComplete();
+    }
+
+    public interface Subscription {
+
+        /**
+         * Adds n to the number of items the subscriber is ready to receive.
+         *
+         * @param n the number of items, which must be positive
+         */
+        void request(long n);
+
+        /**
+         * Stops the delivery of items, eventually.
+         */
+        void cancel();
+    }
+
+    public interface Processor<T, R>
+            extends Subscriber<T>, Publisher<R> {
+    }
+
+}
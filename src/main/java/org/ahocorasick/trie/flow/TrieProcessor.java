@@ -0,0 +1,256 @@
+package org.ahocorasick.trie.flow;
+
+import org.ahocorasick.trie.Emit;
+import org.ahocorasick.trie.Trie;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * <p>
+ *     A stage of a reactive pipeline which scans every text it receives and publishes the emits of each text,
+ *     as {@link Trie#parseText(CharSequence)} returns them, to a single subscriber. A text is only scanned
+ *     once the subscriber has requested its emits, so a slow subscriber holds the scanning back rather than
+ *     letting emit lists pile up. At most bufferSize texts are requested from upstream and not yet published.
+ * </p>
+ *
+ * <p>
+ *     Scanning and delivery run on the executor, one text at a time and never on two threads at once; the
+ *     signals from upstream and the requests from downstream only queue work for it. Upstream completion or
+ *     failure is passed on once the buffered texts have been published.
+ * </p>
+ */
+public class TrieProcessor
+        implements Flow.Processor<CharSequence, List<Emit>> {
+
+    public static final int DEFAULT_BUFFER_SIZE = 16;
+
+    private final Trie trie;
+
+    private final Executor executor;
+
+    private final int bufferSize;
+
+    private final Queue<CharSequence> texts = new ConcurrentLinkedQueue<>();
+
+    private final AtomicReference<Flow.Subscription> upstream = new AtomicReference<>();
+
+    private final AtomicReference<Flow.Subscriber<? super List<Emit>>> downstream = new AtomicReference<>();
+
+    /** the number of emit lists the subscriber has requested and not yet received */
+    private final AtomicLong demand = new AtomicLong();
+
+    /** the number of times drain was asked for, to run it on a single thread at a time */
+    private final AtomicInteger work = new AtomicInteger();
+
+    private final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    private volatile boolean done = false;
+
+    private volatile Throwable error;
+
+    private volatile Throwable requestError;
+
+    private volatile boolean cancelled = false;
+
+    public TrieProcessor(Trie trie, Executor executor) {
+        this(trie, executor, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param trie the trie which scans the texts
+     * @param executor runs the scans and the delivery to the subscriber
+     * @param bufferSize the number of texts requested from upstream ahead of the subscriber
+     */
+    public TrieProcessor(Trie trie, Executor executor, int bufferSize) {
+        if (trie == null) {
+            throw new NullPointerException("trie");
+        }
+        if (executor == null) {
+            throw new NullPointerException("executor");
+        }
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("The buffer size must be positive: " + bufferSize);
+        }
+        this.trie = trie;
+        this.executor = executor;
+        this.bufferSize = bufferSize;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (!this.upstream.compareAndSet(null, subscription)) {
+            subscription.cancel();
+            return;
+        }
+        if (this.cancelled) {
+            subscription.cancel();
+        } else {
+            subscription.request(this.bufferSize);
+        }
+    }
+
+    @Override
+    public void onNext(CharSequence text) {
+        if (text == null) {
+            throw new NullPointerException("text");
+        }
+        this.texts.offer(text);
+        schedule();
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        this.error = throwable;
+        this.done = true;
+        schedule();
+    }
+
+    @Override
+    public void onComplete() {
+        this.done = true;
+        schedule();
+    }
+
+    /**
+     * Accepts a single subscriber; any further subscriber fails with an {@link IllegalStateException}.
+     */
+    @Override
+    public void subscribe(final Flow.Subscriber<? super List<Emit>> subscriber) {
+        if (!this.downstream.compareAndSet(null, subscriber)) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("The processor already has a subscriber"));
+            return;
+        }
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+                if (n <= 0) {
+                    requestError = new IllegalArgumentException(
+                            "The number of requested items must be positive: " + n);
+                } else {
+                    addDemand(n);
+                }
+                schedule();
+            }
+
+            @Override
+            public void cancel() {
+                cancelled = true;
+                cancelUpstream();
+                schedule();
+            }
+        });
+        schedule();
+    }
+
+    private void addDemand(long n) {
+        while (true) {
+            long current = this.demand.get();
+            long next = current + n < 0 ? Long.MAX_VALUE : current + n;
+            if (this.demand.compareAndSet(current, next)) {
+                return;
+            }
+        }
+    }
+
+    private void cancelUpstream() {
+        Flow.Subscription subscription = this.upstream.get();
+        if (subscription != null) {
+            subscription.cancel();
+        }
+    }
+
+    private void schedule() {
+        if (this.work.getAndIncrement() == 0) {
+            this.executor.execute(this.drain);
+        }
+    }
+
+    /**
+     * Scans and publishes as many buffered texts as the subscriber has asked for, then requests as many new
+     * texts from upstream. Runs again as long as it was scheduled while running.
+     */
+    private void drain() {
+        int missed = 1;
+        while (true) {
+            Flow.Subscriber<? super List<Emit>> subscriber = this.downstream.get();
+            if (this.cancelled) {
+                this.texts.clear();
+            } else if (subscriber != null) {
+                if (this.requestError != null) {
+                    fail(subscriber, this.requestError);
+                } else {
+                    publish(subscriber);
+                }
+            }
+            missed = this.work.addAndGet(-missed);
+            if (missed == 0) {
+                return;
+            }
+        }
+    }
+
+    private void publish(Flow.Subscriber<? super List<Emit>> subscriber) {
+        long requested = this.demand.get();
+        long published = 0;
+        while (published != requested && !this.cancelled) {
+            CharSequence text = this.texts.poll();
+            if (text == null) {
+                break;
+            }
+            List<Emit> emits;
+            try {
+                emits = this.trie.parseText(text);
+            } catch (RuntimeException e) {
+                fail(subscriber, e);
+                return;
+            }
+            subscriber.onNext(emits);
+            published++;
+        }
+        if (published != 0) {
+            if (requested != Long.MAX_VALUE) {
+                this.demand.addAndGet(-published);
+            }
+            Flow.Subscription subscription = this.upstream.get();
+            if (!this.done && !this.cancelled && subscription != null) {
+                subscription.request(published);
+            }
+        }
+        if (this.done && this.texts.isEmpty() && !this.cancelled) {
+            this.cancelled = true;
+            if (this.error != null) {
+                subscriber.onError(this.error);
+            } else {
+                subscriber.onComplete();
+            }
+        }
+    }
+
+    private void fail(Flow.Subscriber<? super List<Emit>> subscriber, Throwable throwable) {
+        this.cancelled = true;
+        cancelUpstream();
+        this.texts.clear();
+        subscriber.onError(throwable);
+    }
+
+}
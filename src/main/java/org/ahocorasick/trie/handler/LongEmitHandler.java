@@ -0,0 +1,7 @@
+package org.ahocorasick.trie.handler;
+
+import org.ahocorasick.trie.LongEmit;
+
+public interface LongEmitHandler {
+    void emit(LongEmit emit);
+}
@@ -0,0 +1,16 @@
+package org.ahocorasick.trie.handler;
+
+/**
+ * Receives the matches of a scan as plain ints, so that no {@link org.ahocorasick.trie.Emit} is created for
+ * them. The keyword of a match is found through {@link org.ahocorasick.trie.Trie#getKeyword(int)}.
+ */
+public interface MatchHandler {
+
+    /**
+     * @param start the position of the first character of the match
+     * @param end the position of the last character of the match
+     * @param keywordId the id of the matched keyword
+     * @return true to continue scanning, false to stop the scan straight away
+     */
+    boolean onMatch(int start, int end, int keywordId);
+}
@@ -21,4 +21,12 @@ public class EmitTest {
         assertNotSame(one, two);
     }
 
+    @Test
+    public void keywordId() {
+        Emit emit = new Emit(13, 42, "keyword", 7);
+        assertEquals(7, emit.getKeywordId());
+        assertEquals("keyword", emit.getKeyword());
+        assertEquals(Emit.NO_KEYWORD_ID, new Emit(13, 42, "keyword").getKeywordId());
+    }
+
 }
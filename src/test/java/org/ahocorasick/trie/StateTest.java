@@ -4,6 +4,8 @@ import org.ahocorasick.trie.State;
 import org.junit.Test;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
 
 public class StateTest {
 
@@ -22,4 +24,21 @@ public class StateTest {
         assertEquals(3, currentState.getDepth());
     }
 
+    @Test
+    public void manyTransitions() {
+        State rootState = new State();
+        for (char character = 0; character < 1000; character++) {
+            rootState.addState(character).addState(character);
+        }
+        assertEquals(1000, rootState.getTransitionCharacters().length);
+        assertEquals(1000, rootState.getStates().size());
+        for (char character = 0; character < 1000; character++) {
+            State currentState = rootState.nextStateIgnoreRootState(character);
+            assertEquals(1, currentState.getDepth());
+            assertEquals(2, currentState.nextState(character).getDepth());
+            assertNull(currentState.nextState((char) (character + 1)));
+        }
+        assertSame(rootState, rootState.nextState((char) 1000));
+    }
+
 }
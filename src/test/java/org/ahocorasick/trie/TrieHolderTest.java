@@ -0,0 +1,127 @@
+package org.ahocorasick.trie;
+
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TrieHolderTest {
+
+    @Test
+    public void reloadSwapsInTheNewTrie() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Trie first = Trie.builder().addKeyword("hers").build();
+            TrieHolder holder = new TrieHolder(first, executor);
+            assertEquals(1, holder.getVersion().getNumber());
+
+            // a scan which started on the old version keeps it
+            final CountDownLatch building = new CountDownLatch(1);
+            Trie inFlight = holder.get();
+            Future<TrieHolder.Version> reload = holder.reload(new Callable<Trie>() {
+                @Override
+                public Trie call() throws InterruptedException {
+                    building.await();
+                    return Trie.builder().addKeyword("she").build();
+                }
+            });
+            assertSame(first, holder.get());
+            building.countDown();
+            TrieHolder.Version version = reload.get();
+
+            assertEquals(2, version.getNumber());
+            assertSame(version, holder.getVersion());
+            assertTrue(version.getBuildNanos() > 0);
+            assertEquals("hers", inFlight.parseText("ushers").get(0).getKeyword());
+            assertEquals("she", holder.get().parseText("ushers").get(0).getKeyword());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void failedReloadKeepsTheCurrentTrie() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Trie first = Trie.builder().addKeyword("hers").build();
+            TrieHolder holder = new TrieHolder(first, executor);
+            Future<TrieHolder.Version> reload = holder.reload(new Callable<Trie>() {
+                @Override
+                public Trie call() {
+                    throw new IllegalStateException("broken dictionary");
+                }
+            });
+            try {
+                reload.get();
+                fail("the reload should have failed");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+            assertSame(first, holder.get());
+            assertEquals(1, holder.getVersion().getNumber());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void reloadFinishingLastDoesNotReplaceANewerReload() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            TrieHolder holder = new TrieHolder(Trie.builder().addKeyword("hers").build(), executor);
+            final CountDownLatch slowBuilding = new CountDownLatch(1);
+            Future<TrieHolder.Version> older = holder.reload(new Callable<Trie>() {
+                @Override
+                public Trie call() throws InterruptedException {
+                    slowBuilding.await();
+                    return Trie.builder().addKeyword("his").build();
+                }
+            });
+            Future<TrieHolder.Version> newer = holder.reload(new Callable<Trie>() {
+                @Override
+                public Trie call() {
+                    return Trie.builder().addKeyword("she").build();
+                }
+            });
+            TrieHolder.Version version = newer.get();
+            slowBuilding.countDown();
+            assertSame(version, older.get());
+            assertSame(version, holder.getVersion());
+            assertEquals(2, version.getNumber());
+            assertEquals("she", holder.get().parseText("ushers").get(0).getKeyword());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void executorIsRequired() {
+        new TrieHolder(Trie.builder().build(), null);
+    }
+
+    @Test
+    public void swapIncreasesTheVersion() {
+        TrieHolder holder = new TrieHolder(Trie.builder().build(), new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        Trie next = Trie.builder().addKeyword("he").build();
+        TrieHolder.Version version = holder.swap(next);
+        assertEquals(2, version.getNumber());
+        assertEquals(0, version.getBuildNanos());
+        assertSame(next, holder.get());
+    }
+
+}
@@ -1,15 +1,40 @@
 package org.ahocorasick.trie;
 
+import org.ahocorasick.text.AbstractCharacterConverter;
 import org.ahocorasick.text.FoldToASCII;
+import org.ahocorasick.trie.handler.DefaultEmitHandler;
 import org.ahocorasick.trie.handler.EmitHandler;
+import org.ahocorasick.trie.handler.LongEmitHandler;
+import org.ahocorasick.trie.handler.MatchHandler;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import static junit.framework.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 public class TrieTest {
@@ -146,6 +171,19 @@ public class TrieTest {
         checkEmit(firstMatch, 2, 3, "he");
     }
 
+    @Test
+    public void emitsEndingAtTheSamePositionComeShortestFirst() {
+        Trie trie = Trie.builder()
+                .addKeyword(" b")
+                .addKeyword("b")
+                .build();
+        List<Emit> emits = trie.parseText(" b");
+        assertEquals(2, emits.size());
+        checkEmit(emits.get(0), 1, 1, "b");
+        checkEmit(emits.get(1), 0, 1, " b");
+        checkEmit(trie.firstMatch(" b"), 1, 1, "b");
+    }
+
     @Test
     public void ushersTestByCallback() {
         Trie trie = Trie.builder()
@@ -172,6 +210,69 @@ public class TrieTest {
         checkEmit(iterator.next(), 2, 5, "hers");
     }
 
+    @Test
+    public void ushersTestByMatchHandler() {
+        final Trie trie = Trie.builder()
+                .addKeyword("hers")
+                .addKeyword("his")
+                .addKeyword("she")
+                .addKeyword("he")
+                .build();
+
+        final List<String> matches = new ArrayList<>();
+        trie.parseText("ushers uhis", new MatchHandler() {
+
+            @Override
+            public boolean onMatch(int start, int end, int keywordId) {
+                matches.add(start + ":" + end + "=" + keywordId);
+                return true;
+            }
+        });
+        assertEquals("[2:3=3, 1:3=2, 2:5=0, 8:10=1]", matches.toString());
+
+        // stops as soon as the handler asks to, even between keywords ending at the same position
+        matches.clear();
+        trie.parseText("ushers uhis", new MatchHandler() {
+
+            @Override
+            public boolean onMatch(int start, int end, int keywordId) {
+                matches.add(start + ":" + end + "=" + keywordId);
+                return !"she".equals(trie.getKeyword(keywordId));
+            }
+        });
+        assertEquals("[2:3=3, 1:3=2]", matches.toString());
+    }
+
+    @Test
+    public void matchHandlerWithCharacterConverter() {
+        Trie trie = Trie.builder()
+                .treatMultipleSpacesAsOneSpace()
+                .setCharacterConverter(new FoldToASCII())
+                .addKeyword("aes")
+                .addKeyword("s")
+                .build();
+
+        // the expanded character and the dropped space still map back to positions in the text
+        final List<String> matches = new ArrayList<>();
+        MatchHandler collect = new MatchHandler() {
+
+            @Override
+            public boolean onMatch(int start, int end, int keywordId) {
+                matches.add(start + ":" + end + "=" + keywordId);
+                return matches.size() < 3;
+            }
+        };
+        trie.parseText("\u00e6s  \u00e6s \u00e6s", collect);
+        assertEquals("[1:1=1, 0:1=0, 5:5=1]", matches.toString());
+
+        matches.clear();
+        MatcherSession session = trie.newSession(collect);
+        session.feed("\u00e6s  \u00e6");
+        session.feed("s \u00e6s");
+        assertTrue(session.isStopped());
+        assertEquals("[1:1=1, 0:1=0, 5:5=1]", matches.toString());
+    }
+
     @Test
     public void misleadingTest() {
         Trie trie = Trie.builder()
@@ -403,6 +504,39 @@ public class TrieTest {
         checkEmit(it.next(), 29, 31, "fflip");
     }
 
+    @Test
+    public void foldingTablesAreCachedByConverter() {
+        Trie first = Trie.builder().setCharacterConverter(new FoldToASCII()).addKeyword("cafe").build();
+        Trie second = Trie.builder().setCharacterConverter(new FoldToASCII()).addKeyword("the").build();
+        Trie caseInsensitive = Trie.builder().caseInsensitive().setCharacterConverter(new FoldToASCII())
+                .addKeyword("cafe").build();
+        assertSame(first.getTrieConfig().getFoldingTable(), second.getTrieConfig().getFoldingTable());
+        assertNotSame(first.getTrieConfig().getFoldingTable(), caseInsensitive.getTrieConfig().getFoldingTable());
+        assertEquals(1, caseInsensitive.parseText("CAF\u00c9").size());
+    }
+
+    @Test
+    public void keywordsAreFoldedLikeTheText() {
+        Trie trie = Trie.builder().caseInsensitive().setCharacterConverter(new FoldToASCII())
+                .addKeyword("Caf\u00e9")
+                .addKeyword("cafe")
+                .addKeyword("\u00c6ther")
+                .build();
+        assertEquals(2, trie.getKeywordCount());
+        List<Emit> emits = trie.parseText("CAFE caf\u00e9 \u00e6ther");
+        assertEquals(3, emits.size());
+        Iterator<Emit> it = emits.iterator();
+        checkEmit(it.next(), 0, 3, "cafe");
+        checkEmit(it.next(), 5, 8, "cafe");
+        checkEmit(it.next(), 10, 14, "aether");
+        checkEmit(trie.firstMatch("\u00c6THER"), 0, 4, "aether");
+
+        // lower-cased character by character, as the text is
+        trie = Trie.builder().caseInsensitive().addKeyword("\u0130s").build();
+        checkEmit(trie.firstMatch("L\u0130S"), 1, 2, "is");
+        checkEmit(trie.parseText("L\u0130S").get(0), 1, 2, "is");
+    }
+
     @Test
     public void treatMultipleSpacesAsOneSpace() {
         Trie trie = Trie.builder()
@@ -498,6 +632,806 @@ public class TrieTest {
         checkEmit(emits.iterator().next(), 0, 9, "#sugar-123");
     }
 
+    @Test
+    public void ushersTestDoubleArray() {
+        Trie trie = Trie.builder()
+                .compileDoubleArray()
+                .addKeyword("hers")
+                .addKeyword("his")
+                .addKeyword("she")
+                .addKeyword("he")
+                .build();
+        List<Emit> emits = trie.parseText("ushers");
+        assertEquals(3, emits.size()); // she @ 3, he @ 3, hers @ 5
+        Iterator<Emit> iterator = emits.iterator();
+        checkEmit(iterator.next(), 2, 3, "he");
+        checkEmit(iterator.next(), 1, 3, "she");
+        checkEmit(iterator.next(), 2, 5, "hers");
+        checkEmit(trie.firstMatch("ushers"), 2, 3, "he");
+    }
+
+    @Test
+    public void caseInsensitiveAndFoldToASCIIDoubleArray() {
+        Trie trie = Trie.builder().caseInsensitive().setCharacterConverter(new FoldToASCII())
+                .compileDoubleArray()
+                .removeOverlaps()
+                .addKeyword("dzaen")
+                .addKeyword("turning")
+                .addKeyword("once")
+                .addKeyword("aagaain")
+                .addKeyword("borku")
+                .addKeyword("fflip")
+                .build();
+        List<Emit> emits = trie.parseText("ǅǼn TurninĜ OnCễ ꜲgꜳiN BÖRKü ﬄip");
+        assertEquals(6, emits.size());
+        Iterator<Emit> it = emits.iterator();
+        checkEmit(it.next(), 0, 2, "dzaen");
+        checkEmit(it.next(), 4, 10, "turning");
+        checkEmit(it.next(), 12, 15, "once");
+        checkEmit(it.next(), 17, 21, "aagaain");
+        checkEmit(it.next(), 23, 27, "borku");
+        checkEmit(it.next(), 29, 31, "fflip");
+    }
+
+    @Test
+    public void doubleArrayMatchesStateGraph() {
+        Random random = new Random(42);
+        Trie.TrieBuilder stateGraph = Trie.builder();
+        Trie.TrieBuilder doubleArray = Trie.builder().compileDoubleArray();
+        for (int i = 0; i < 2000; i++) {
+            String keyword = randomText(random, 1 + random.nextInt(6));
+            stateGraph.addKeyword(keyword);
+            doubleArray.addKeyword(keyword);
+        }
+        String text = randomText(random, 10000);
+        assertEquals(stateGraph.build().parseText(text).toString(), doubleArray.build().parseText(text).toString());
+    }
+
+    @Test
+    public void dfaMatchesStateGraph() {
+        Random random = new Random(7);
+        Trie.TrieBuilder stateGraph = Trie.builder().caseInsensitive();
+        Trie.TrieBuilder dfa = Trie.builder().caseInsensitive().compileDfa();
+        for (int i = 0; i < 2000; i++) {
+            String keyword = randomText(random, 1 + random.nextInt(6));
+            stateGraph.addKeyword(keyword);
+            dfa.addKeyword(keyword);
+        }
+        assertTrue(dfa.estimateDfaSize() > 0);
+        String text = randomText(random, 10000).toUpperCase();
+        assertEquals(stateGraph.build().parseText(text).toString(), dfa.build().parseText(text).toString());
+    }
+
+    @Test
+    public void estimateDfaSize() {
+        Trie.TrieBuilder builder = Trie.builder()
+                .addKeyword("hers")
+                .addKeyword("his")
+                .addKeyword("she")
+                .addKeyword("he");
+        long small = builder.estimateDfaSize();
+        builder.addKeyword("abcdefghijklmnopqrstuvwxyz");
+        assertTrue(builder.estimateDfaSize() > small);
+    }
+
+    @Test
+    public void adaptiveTransitionsMatchStateGraph() {
+        Random random = new Random(11);
+        Trie.TrieBuilder stateGraph = Trie.builder();
+        Trie.TrieBuilder adaptive = Trie.builder().adaptiveTransitions();
+        for (int i = 0; i < 2000; i++) {
+            String keyword = randomText(random, 1 + random.nextInt(12));
+            stateGraph.addKeyword(keyword);
+            adaptive.addKeyword(keyword);
+        }
+        for (char character = 'A'; character < 'A' + 100; character += 3) {
+            // a wide, sparse root next to the dense random alphabet
+            stateGraph.addKeyword(character + "x");
+            adaptive.addKeyword(character + "x");
+        }
+        String text = randomText(random, 10000) + "AxDx";
+        Trie adaptiveTrie = adaptive.build();
+        assertEquals(stateGraph.build().parseText(text).toString(), adaptiveTrie.parseText(text).toString());
+
+        TrieStatistics before = stateGraph.getStatistics();
+        TrieStatistics after = adaptive.getStatistics();
+        assertEquals(before.getStateCount(), after.getStateCount());
+        assertEquals(before.getSingleStates(), after.getSingleStates());
+        assertEquals(0, before.getDirectStates() + before.getSortedStates());
+        assertTrue(after.getDirectStates() > 0);
+        assertTrue(after.getSortedStates() > 0);
+        assertTrue(after.getTransitionBytes() < before.getTransitionBytes());
+        assertEquals(adaptiveTrie.getKeywordCount(), after.getKeywordCount());
+        assertTrue(after.getBuildNanos() > 0);
+        assertTrue(after.getKeywordsPerSecond() > 0);
+    }
+
+    @Test
+    public void statisticsReportTheBuildTimeOnceBuilt() {
+        Trie.TrieBuilder builder = Trie.builder().addKeyword("he").addKeyword("she");
+        assertEquals(0, builder.getStatistics().getBuildNanos());
+        assertEquals(2, builder.getStatistics().getKeywordCount());
+        builder.build();
+        assertTrue(builder.getStatistics().getBuildNanos() > 0);
+    }
+
+    @Test
+    public void nestedKeywordsFollowDictionarySuffixes() {
+        Trie.TrieBuilder[] builders = {
+                Trie.builder(), Trie.builder().compileDoubleArray(), Trie.builder().compileDfa(),
+                Trie.builder().compileRadix() };
+        for (Trie.TrieBuilder builder : builders) {
+            Trie trie = builder
+                    .addKeyword("a")
+                    .addKeyword("aaa")
+                    .addKeyword("baaa")
+                    .build();
+            List<Emit> emits = trie.parseText("baaaa");
+            assertEquals(7, emits.size());
+            Iterator<Emit> it = emits.iterator();
+            checkEmit(it.next(), 1, 1, "a");
+            checkEmit(it.next(), 2, 2, "a");
+            checkEmit(it.next(), 3, 3, "a");
+            checkEmit(it.next(), 1, 3, "aaa");
+            checkEmit(it.next(), 0, 3, "baaa");
+            checkEmit(it.next(), 4, 4, "a");
+            checkEmit(it.next(), 2, 4, "aaa");
+        }
+    }
+
+    @Test
+    public void keywordIds() {
+        Trie trie = Trie.builder()
+                .caseInsensitive()
+                .compileDoubleArray()
+                .addKeyword("hers")
+                .addKeyword("HIS")
+                .addKeyword("she")
+                .addKeyword("his")
+                .addKeyword("he")
+                .build();
+        assertEquals(4, trie.getKeywordCount());
+        assertEquals("his", trie.getKeyword(1));
+        List<Emit> emits = trie.parseText("ushers");
+        Iterator<Emit> iterator = emits.iterator();
+        assertEquals(3, iterator.next().getKeywordId());
+        assertEquals(2, iterator.next().getKeywordId());
+        assertEquals(0, iterator.next().getKeywordId());
+    }
+
+    @Test
+    public void concurrentScansOfOneTrie() throws Exception {
+        Random random = new Random(3);
+        Trie.TrieBuilder builder = Trie.builder().removeOverlaps();
+        for (int i = 0; i < 1000; i++) {
+            builder.addKeyword(randomText(random, 1 + random.nextInt(6)));
+        }
+        final Trie trie = builder.build();
+        final String text = randomText(random, 5000);
+        final String expected = trie.parseText(text).toString();
+
+        int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < threads * 4; i++) {
+                results.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() {
+                        return trie.parseText(text).toString();
+                    }
+                }));
+            }
+            for (Future<String> result : results) {
+                assertEquals(expected, result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void incrementalAddAndRemove() {
+        IncrementalTrie trie = Trie.builder()
+                .addKeyword("hers")
+                .addKeyword("his")
+                .buildIncremental();
+        assertTrue(trie.addKeyword("she"));
+        assertTrue(trie.addKeyword("he"));
+        assertFalse(trie.addKeyword("he"));
+        List<Emit> emits = trie.parseText("ushers");
+        assertEquals(3, emits.size());
+        Iterator<Emit> iterator = emits.iterator();
+        checkEmit(iterator.next(), 2, 3, "he");
+        checkEmit(iterator.next(), 1, 3, "she");
+        checkEmit(iterator.next(), 2, 5, "hers");
+
+        assertTrue(trie.removeKeyword("he"));
+        assertFalse(trie.removeKeyword("he"));
+        assertTrue(trie.removeKeyword("hers"));
+        emits = trie.parseText("ushers");
+        assertEquals(1, emits.size());
+        checkEmit(emits.get(0), 1, 3, "she");
+        assertEquals(4, trie.getKeywordCount());
+        assertEquals(null, trie.getKeyword(0));
+
+        // the ids of removed keywords are reused, so the table does not grow
+        Emit she = emits.get(0);
+        for (int round = 0; round < 100; round++) {
+            assertTrue(trie.addKeyword("he"));
+            assertTrue(trie.removeKeyword("she"));
+            assertTrue(trie.addKeyword("she"));
+            assertTrue(trie.removeKeyword("he"));
+        }
+        assertEquals(4, trie.getKeywordCount());
+        assertEquals("she", she.getKeyword());
+        checkEmit(trie.parseText("ushers").get(0), 1, 3, "she");
+    }
+
+    @Test
+    public void incrementalChangesMatchRebuiltTrie() {
+        Random random = new Random(5);
+        List<String> keywords = new ArrayList<>();
+        IncrementalTrie incremental = Trie.builder().caseInsensitive().buildIncremental();
+        String text = randomText(random, 2000);
+        for (int round = 0; round < 3000; round++) {
+            if (keywords.isEmpty() || random.nextInt(3) > 0) {
+                String keyword = randomText(random, 1 + random.nextInt(6));
+                assertEquals(!keywords.contains(keyword), incremental.addKeyword(keyword.toUpperCase()));
+                if (!keywords.contains(keyword)) {
+                    keywords.add(keyword);
+                }
+            } else {
+                String keyword = keywords.remove(random.nextInt(keywords.size()));
+                assertTrue(incremental.removeKeyword(keyword));
+            }
+            if (round % 100 == 0) {
+                Trie rebuilt = Trie.builder().caseInsensitive().addKeywords(keywords).build();
+                assertEquals(rebuilt.parseText(text).toString(), incremental.parseText(text).toString());
+            }
+        }
+    }
+
+    @Test
+    public void sortedKeywordsMatchOneByOne() {
+        Random random = new Random(19);
+        List<String> keywords = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            keywords.add(randomText(random, 1 + random.nextInt(8)));
+        }
+        Trie.TrieBuilder oneByOne = Trie.builder().adaptiveTransitions().addKeywords(keywords);
+        Collections.sort(keywords);
+        Trie.TrieBuilder sorted = Trie.builder().adaptiveTransitions().addSortedKeywords(keywords.iterator());
+        String text = randomText(random, 10000);
+        Trie sortedTrie = sorted.build();
+        Trie oneByOneTrie = oneByOne.build();
+        assertEquals(oneByOneTrie.parseText(text).toString(), sortedTrie.parseText(text).toString());
+        assertEquals(oneByOne.getStatistics().toString(), sorted.getStatistics().toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void sortedKeywordsOutOfOrder() {
+        Trie.builder().addSortedKeywords(Arrays.asList("he", "hers", "her").iterator());
+    }
+
+    @Test
+    public void minimizedMatchesStateGraph() {
+        Random random = new Random(23);
+        List<String> keywords = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            keywords.add(randomText(random, 1 + random.nextInt(8)));
+        }
+        String text = randomText(random, 10000).toUpperCase();
+        Trie stateGraph = Trie.builder().caseInsensitive().addKeywords(keywords).build();
+        Trie.TrieBuilder builder = Trie.builder().caseInsensitive().minimize().addKeywords(keywords);
+        Trie minimized = builder.build();
+        assertEquals(stateGraph.parseText(text).toString(), minimized.parseText(text).toString());
+        assertEquals(stateGraph.firstMatch(text).toString(), minimized.firstMatch(text).toString());
+        assertTrue(builder.getMinimizationStatistics().getStateCountAfter() <
+                builder.getMinimizationStatistics().getStateCountBefore());
+    }
+
+    @Test
+    public void minimizeSharesKeywordTails() {
+        Trie.TrieBuilder builder = Trie.builder().minimize();
+        for (String name : new String[] { "router", "switch", "gateway", "firewall", "modem" }) {
+            builder.addKeyword(name + " model-x2000 pro");
+        }
+        Trie trie = builder.build();
+        MinimizationStatistics statistics = builder.getMinimizationStatistics();
+        assertTrue(statistics.getStateCountAfter() < statistics.getStateCountBefore() / 2);
+        assertTrue(statistics.getEstimatedBytesAfter() < statistics.getEstimatedBytesBefore());
+
+        List<Emit> emits = trie.parseText("a modem model-x2000 pro and a switch model-x2000 pro");
+        assertEquals(2, emits.size());
+        checkEmit(emits.get(0), 2, 22, "modem model-x2000 pro");
+        checkEmit(emits.get(1), 30, 51, "switch model-x2000 pro");
+    }
+
+    @Test
+    public void radixMatchesStateGraph() {
+        Random random = new Random(29);
+        List<String> keywords = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            keywords.add(randomText(random, 1 + random.nextInt(20)));
+        }
+        String text = randomText(random, 10000);
+        Trie stateGraph = Trie.builder().addKeywords(keywords).build();
+        Trie radix = Trie.builder().compileRadix().addKeywords(keywords).build();
+        assertEquals(stateGraph.parseText(text).toString(), radix.parseText(text).toString());
+        assertEquals(stateGraph.firstMatch(text).toString(), radix.firstMatch(text).toString());
+    }
+
+    @Test
+    public void radixStoresChainsAsLabels() {
+        String[] keywords = {
+                "router model-x2000 pro", "switch model-x2000 pro", "gateway model-x2000 pro" };
+        Trie.TrieBuilder stateGraph = Trie.builder().addKeywords(Arrays.asList(keywords));
+        stateGraph.build();
+        TrieStatistics statistics = stateGraph.getStatistics();
+        Trie trie = Trie.builder().compileRadix().addKeywords(Arrays.asList(keywords)).build();
+        RadixAutomaton radix = (RadixAutomaton) trie.getAutomaton();
+        // every state but the root, with three transitions, and the three leaves is part of a chain
+        assertEquals(statistics.getStateCount() - 4, radix.getChainStateCount());
+        assertTrue(radix.footprint() < statistics.getEstimatedBytes());
+
+        List<Emit> emits = trie.parseText("a switch model-x2000 pro, not a router model-x2000");
+        assertEquals(1, emits.size());
+        checkEmit(emits.get(0), 2, 23, "switch model-x2000 pro");
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void minimizeWithCharacterConverter() {
+        Trie.builder().minimize().setCharacterConverter(new FoldToASCII()).addKeyword("he").build();
+    }
+
+    @Test
+    public void utf8MatchesTrie() {
+        Random random = new Random(31);
+        // upper and lower case, two, three and four byte characters and white space
+        String[] alphabet = { "a", "B", "b", "\u00e4", "\u00c4", "\u20ac", "\u212a", "k", "\ud834\udd1e", " " };
+        List<String> keywords = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            keywords.add(randomText(random, alphabet, 1 + random.nextInt(4)));
+        }
+        String text = randomText(random, alphabet, 5000);
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length + 3);
+        direct.put(new byte[3]).put(bytes).flip().position(3);
+        Trie.TrieBuilder[][] builders = {
+                { Trie.builder(), Trie.builder() },
+                { Trie.builder().caseInsensitive(), Trie.builder().caseInsensitive().compileDfa() },
+                { Trie.builder().removeOverlaps(), Trie.builder().removeOverlaps().compileDoubleArray() },
+                { Trie.builder().onlyWholeWords().caseInsensitive(), Trie.builder().onlyWholeWords().caseInsensitive() },
+                { Trie.builder().onlyWholeWordsWhiteSpaceSeparated(),
+                        Trie.builder().onlyWholeWordsWhiteSpaceSeparated().compileRadix() } };
+        for (Trie.TrieBuilder[] pair : builders) {
+            List<Emit> expected = pair[0].addKeywords(keywords).build().parseText(text);
+            Utf8Trie utf8Trie = pair[1].addKeywords(keywords).buildUtf8();
+            List<Emit> emits = utf8Trie.parseBytes(bytes);
+            assertEquals(expected.size(), emits.size());
+            for (int index = 0; index < emits.size(); index++) {
+                Utf8Emit emit = (Utf8Emit) emits.get(index);
+                assertEquals(expected.get(index).getStart(), emit.getCharStart());
+                assertEquals(expected.get(index).getEnd(), emit.getCharEnd());
+                assertEquals(expected.get(index).getKeyword(), emit.getKeyword());
+                String matched = new String(bytes, emit.getStart(), emit.getEnd() - emit.getStart() + 1,
+                        StandardCharsets.UTF_8);
+                assertEquals(text.substring(emit.getCharStart(), emit.getCharEnd() + 1), matched);
+            }
+            assertEquals(emits.toString(), utf8Trie.parseBytes(direct).toString());
+            assertEquals(3, direct.position());
+        }
+    }
+
+    @Test
+    public void utf8ByteOffsets() {
+        Utf8Trie trie = Trie.builder().caseInsensitive().addKeyword("caf\u00e9").addKeyword("na\u00efve").buildUtf8();
+        byte[] bytes = "a CAF\u00c9 for the NA\u00cfVE".getBytes(StandardCharsets.UTF_8);
+        List<Emit> emits = trie.parseBytes(bytes);
+        assertEquals(2, emits.size());
+        checkEmit(emits.get(0), 2, 6, "caf\u00e9");
+        assertEquals(5, ((Utf8Emit) emits.get(0)).getCharEnd());
+        checkEmit(emits.get(1), 16, 21, "na\u00efve");
+        assertEquals(15, ((Utf8Emit) emits.get(1)).getCharStart());
+    }
+
+    @Test
+    public void utf8ParseFile() throws IOException {
+        Random random = new Random(37);
+        String[] alphabet = { "a", "B", "\u00e4", "\u00c4", "\u20ac", "\u212a", "k", "\ud834\udd1e", " " };
+        List<String> keywords = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            keywords.add(randomText(random, alphabet, 1 + random.nextInt(5)));
+        }
+        byte[] bytes = randomText(random, alphabet, 3000).getBytes(StandardCharsets.UTF_8);
+        Path path = Files.createTempFile("text", ".txt");
+        try {
+            Files.write(path, bytes);
+            Trie.TrieBuilder[] builders = {
+                    Trie.builder(), Trie.builder().caseInsensitive().removeOverlaps(),
+                    Trie.builder().caseInsensitive().onlyWholeWords(), Trie.builder().onlyWholeWordsWhiteSpaceSeparated() };
+            for (Trie.TrieBuilder builder : builders) {
+                Utf8Trie trie = builder.addKeywords(keywords).buildUtf8();
+                String expected = trie.parseBytes(bytes).toString();
+                assertEquals(expected, trie.parseFile(path).toString());
+
+                // windows of 16 bytes, so that many matches and characters span two of them
+                final List<LongEmit> emits = new ArrayList<>();
+                try (FileChannel channel = FileChannel.open(path)) {
+                    trie.parseFile(channel, new LongEmitHandler() {
+                        @Override
+                        public void emit(LongEmit emit) {
+                            emits.add(emit);
+                        }
+                    }, 4);
+                }
+                DefaultEmitHandler unfiltered = new DefaultEmitHandler();
+                trie.parseBytes(ByteBuffer.wrap(bytes), unfiltered);
+                assertEquals(unfiltered.getEmits().toString(), emits.toString());
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void utf8WithCharacterConverter() {
+        Trie.builder().setCharacterConverter(new FoldToASCII()).addKeyword("he").buildUtf8();
+    }
+
+    @Test
+    public void sessionMatchesParseText() throws IOException {
+        Random random = new Random(41);
+        // expanding and folded characters and runs of white space
+        String[] alphabet = { "a", "e", "E", "\u00e9", "\u00c6", "\u00df", " ", "  ", "\t" };
+        List<String> keywords = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            keywords.add(randomText(random, new String[] { "a", "e", "ae", "ss", " " }, 1 + random.nextInt(4)));
+        }
+        String text = randomText(random, alphabet, 3000);
+        Trie.TrieBuilder[][] builders = {
+                { Trie.builder(), Trie.builder() },
+                { Trie.builder().caseInsensitive().setCharacterConverter(new FoldToASCII()),
+                        Trie.builder().caseInsensitive().setCharacterConverter(new FoldToASCII()) },
+                { Trie.builder().treatMultipleSpacesAsOneSpace().setCharacterConverter(new FoldToASCII()),
+                        Trie.builder().treatMultipleSpacesAsOneSpace().setCharacterConverter(new FoldToASCII()) },
+                { Trie.builder().caseInsensitive(), Trie.builder().caseInsensitive().minimize() },
+                { Trie.builder().stopOnHit(), Trie.builder().stopOnHit() } };
+        for (Trie.TrieBuilder[] pair : builders) {
+            DefaultEmitHandler expected = new DefaultEmitHandler();
+            pair[0].addKeywords(keywords).build().parseText(text, expected);
+            Trie trie = pair[1].addKeywords(keywords).build();
+            DefaultEmitHandler emitHandler = new DefaultEmitHandler();
+            MatcherSession session = trie.newSession(emitHandler);
+            char[] characters = text.toCharArray();
+            int offset = 0;
+            while (offset < characters.length) {
+                int length = Math.min(characters.length - offset, random.nextInt(7));
+                session.feed(characters, offset, length);
+                offset += length;
+            }
+            assertEquals(expected.getEmits().toString(), emitHandler.getEmits().toString());
+
+            final List<LongEmit> longEmits = new ArrayList<>();
+            trie.parse(new StringReader(text), new LongEmitHandler() {
+                @Override
+                public void emit(LongEmit emit) {
+                    longEmits.add(emit);
+                }
+            });
+            assertEquals(expected.getEmits().toString(), longEmits.toString());
+        }
+    }
+
+    @Test
+    public void parseTextParallelMatchesParseText() {
+        Random random = new Random(43);
+        String[] alphabet = { "a", "e", "E", "\u00e9", "\u00c6", "\u00df", " ", "  ", "\t", "." };
+        List<String> keywords = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            keywords.add(randomText(random, new String[] { "a", "e", "ae", "ss", " " }, 1 + random.nextInt(4)));
+        }
+        String text = randomText(random, alphabet, 5000);
+        Trie.TrieBuilder[] builders = {
+                Trie.builder(),
+                Trie.builder().caseInsensitive().removeOverlaps().onlyWholeWords(),
+                Trie.builder().setCharacterConverter(new FoldToASCII()).treatMultipleSpacesAsOneSpace().removeOverlaps(),
+                Trie.builder().treatMultipleSpacesAsOneSpace().onlyWholeWordsWhiteSpaceSeparated(),
+                Trie.builder().caseInsensitive().minimize().removeOverlaps(),
+                Trie.builder().stopOnHit() };
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (Trie.TrieBuilder builder : builders) {
+                Trie trie = builder.addKeywords(keywords).build();
+                String expected = trie.parseText(text).toString();
+                assertEquals(expected, trie.parseTextParallel(text, pool, 37).toString());
+                assertEquals(expected, trie.parseTextParallel(text, pool).toString());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void parseAllMatchesParseText() {
+        Random random = new Random(47);
+        List<String> keywords = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            keywords.add(randomText(random, 1 + random.nextInt(4)));
+        }
+        List<String> documents = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            documents.add(randomText(random, random.nextInt(i < 10 ? 2000 : 100)));
+        }
+        Trie trie = Trie.builder().removeOverlaps().setCharacterConverter(new FoldToASCII())
+                .addKeywords(keywords).build();
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            List<List<Emit>> results = trie.parseAll(documents, executor);
+            assertEquals(documents.size(), results.size());
+            for (int i = 0; i < documents.size(); i++) {
+                assertEquals(trie.parseText(documents.get(i)).toString(), results.get(i).toString());
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        // on the calling thread
+        List<List<Emit>> results = trie.parseAll(documents, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        assertEquals(trie.parseText(documents.get(7)).toString(), results.get(7).toString());
+    }
+
+    @Test
+    public void matchBufferMatchesParseText() {
+        Random random = new Random(53);
+        String[] alphabet = { "a", "e", "E", "\u00e9", "\u00c6", "\u00df", " ", "  ", "x" };
+        List<String> keywords = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            keywords.add(randomText(random, new String[] { "a", "e", "ae", "ss", " " }, 1 + random.nextInt(4)));
+        }
+        Trie.TrieBuilder[] builders = {
+                Trie.builder(),
+                Trie.builder().removeOverlaps(),
+                Trie.builder().removeOverlaps().onlyWholeWords(),
+                Trie.builder().caseInsensitive().onlyWholeWordsWhiteSpaceSeparated().removeOverlaps(),
+                Trie.builder().treatMultipleSpacesAsOneSpace().setCharacterConverter(new FoldToASCII())
+                        .removeOverlaps() };
+        MatchBuffer matches = new MatchBuffer(4);
+        for (Trie.TrieBuilder builder : builders) {
+            Trie trie = builder.addKeywords(keywords).build();
+            for (int i = 0; i < 20; i++) {
+                String text = randomText(random, alphabet, random.nextInt(500));
+                trie.parseTextInto(text, matches);
+                StringBuilder expected = new StringBuilder("[");
+                for (Emit emit : trie.parseText(text)) {
+                    expected.append(expected.length() > 1 ? ", " : "").append(emit.getStart()).append(':')
+                            .append(emit.getEnd()).append('=').append(emit.getKeywordId());
+                }
+                assertEquals(expected.append(']').toString(), matches.toString());
+            }
+        }
+
+        // the buffer is cleared by the next scan and iterated in order
+        Trie trie = Trie.builder().addKeyword("he").addKeyword("hers").build();
+        trie.parseTextInto("ushers he", matches);
+        final List<String> found = new ArrayList<>();
+        assertFalse(matches.forEach(new MatchHandler() {
+            @Override
+            public boolean onMatch(int start, int end, int keywordId) {
+                found.add(start + ":" + end);
+                return found.size() < 2;
+            }
+        }));
+        assertEquals("[2:3, 2:5]", found.toString());
+        assertEquals(3, matches.size());
+        assertEquals(7, matches.getStart(2));
+        assertEquals(0, matches.getKeywordId(2));
+    }
+
+    @Test
+    public void parseReader() throws IOException {
+        Trie trie = Trie.builder().addKeyword("hers").addKeyword("his").addKeyword("she").addKeyword("he").build();
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            text.append("ushers ");
+        }
+        DefaultEmitHandler emitHandler = new DefaultEmitHandler();
+        trie.parse(new StringReader(text.toString()), emitHandler);
+        assertEquals(15000, emitHandler.getEmits().size());
+        checkEmit(emitHandler.getEmits().get(14999), 34995, 34998, "hers");
+    }
+
+    @Test
+    public void saveAndLoad() throws IOException {
+        Random random = new Random(13);
+        List<String> keywords = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            keywords.add(randomText(random, 1 + random.nextInt(6)));
+        }
+        String text = randomText(random, 5000).toUpperCase();
+        Trie.TrieBuilder[] builders = {
+                Trie.builder(), Trie.builder().compileDoubleArray(), Trie.builder().compileDfa() };
+        for (Trie.TrieBuilder builder : builders) {
+            Trie trie = builder.caseInsensitive().removeOverlaps().setCharacterConverter(new FoldToASCII())
+                    .addKeywords(keywords).build();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            trie.save(out);
+            Trie loaded = Trie.load(new ByteArrayInputStream(out.toByteArray()));
+            assertEquals(trie.getKeywordCount(), loaded.getKeywordCount());
+            assertEquals(trie.parseText(text).toString(), loaded.parseText(text).toString());
+        }
+
+        // a converter without a public no-argument constructor, which expands and drops characters
+        final String replacement = "ss";
+        Trie converting = Trie.builder().setCharacterConverter(new AbstractCharacterConverter() {
+            @Override
+            public char[] convert(char character) {
+                return character == '\u00df' ? replacement.toCharArray() :
+                        character == '-' ? new char[0] : new char[] { character };
+            }
+        }).addKeyword("strasse").addKeyword("ss").build();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        converting.save(out);
+        Trie loadedConverting = Trie.load(new ByteArrayInputStream(out.toByteArray()));
+        String convertedText = "Stra\u00dfe, stras-se";
+        assertEquals(converting.parseText(convertedText).toString(),
+                loadedConverting.parseText(convertedText).toString());
+        assertEquals(3, loadedConverting.parseText(convertedText).size());
+
+        Path path = Files.createTempFile("trie", ".bin");
+        try {
+            Trie trie = Trie.builder().addKeyword("hers").addKeyword("his").addKeyword("she").addKeyword("he").build();
+            trie.save(path);
+            Trie loaded = Trie.load(path);
+            assertEquals(trie.parseText("ushers").toString(), loaded.parseText("ushers").toString());
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void mapTrieFile() throws IOException {
+        Random random = new Random(17);
+        List<String> keywords = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            keywords.add(randomText(random, 1 + random.nextInt(6)));
+        }
+        String text = randomText(random, 5000);
+        Trie.TrieBuilder[] builders = { Trie.builder().compileDoubleArray(), Trie.builder().compileDfa() };
+        for (Trie.TrieBuilder builder : builders) {
+            Trie trie = builder.addKeywords(keywords).build();
+            Path path = Files.createTempFile("trie", ".bin");
+            try {
+                trie.save(path);
+                String expected = trie.parseText(text).toString();
+                assertEquals(expected, Trie.map(path).parseText(text).toString());
+                // tiny segments, so that the tables span many of them
+                assertEquals(expected, TrieFile.map(path, 6).parseText(text).toString());
+            } finally {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void loadRejectsCorruptData() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Trie.builder().addKeyword("hers").addKeyword("his").build().save(out);
+        byte[] bytes = out.toByteArray();
+        bytes[bytes.length / 2] ^= 1;
+        Trie.load(new ByteArrayInputStream(bytes));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void addKeywordAfterBuild() {
+        Trie.TrieBuilder builder = Trie.builder().addKeyword("abc");
+        builder.build();
+        builder.addKeyword("def");
+    }
+
+    @Test
+    public void parallelBuildMatchesSequentialBuild() {
+        Random random = new Random(5);
+        List<String> keywords = new ArrayList<>();
+        for (int i = 0; i < 30000; i++) {
+            keywords.add(randomText(random, 1 + random.nextInt(10)));
+        }
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Trie.TrieBuilder sequential = Trie.builder().caseInsensitive().adaptiveTransitions();
+            for (String keyword : keywords) {
+                sequential.addKeyword(keyword);
+            }
+            Trie.TrieBuilder parallel = Trie.builder().caseInsensitive().adaptiveTransitions().parallel(pool)
+                    .addKeywords(keywords);
+            Trie sequentialTrie = sequential.build();
+            Trie parallelTrie = parallel.build();
+            assertEquals(sequentialTrie.getKeywordCount(), parallelTrie.getKeywordCount());
+            assertEquals(sequential.getStatistics().toString(), parallel.getStatistics().toString());
+
+            String text = randomText(random, 10000);
+            List<Emit> expected = sequentialTrie.parseText(text);
+            List<Emit> actual = parallelTrie.parseText(text);
+            assertEquals(expected.toString(), actual.toString());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).getKeywordId(), actual.get(i).getKeywordId());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void parallelBuildAssignsTheSameStateIds() {
+        Random random = new Random(7);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (int round = 0; round < 5; round++) {
+                // a wide alphabet, so that the transitions of the root collide in their hash slots
+                List<String> keywords = new ArrayList<>();
+                for (int i = 0; i < 12000; i++) {
+                    char[] characters = new char[1 + random.nextInt(4)];
+                    for (int index = 0; index < characters.length; index++) {
+                        characters[index] = (char) ('a' + random.nextInt(300));
+                    }
+                    keywords.add(new String(characters));
+                }
+                Trie sequential = Trie.builder().addKeywords(keywords).build();
+                Trie parallel = Trie.builder().parallel(pool).addKeywords(keywords).build();
+                List<State> sequentialStates = ((StateGraphAutomaton) sequential.getAutomaton()).getStates();
+                List<State> parallelStates = ((StateGraphAutomaton) parallel.getAutomaton()).getStates();
+                assertEquals(sequentialStates.size(), parallelStates.size());
+                for (int id = 0; id < sequentialStates.size(); id++) {
+                    State expected = sequentialStates.get(id);
+                    State actual = parallelStates.get(id);
+                    assertEquals(new String(expected.getTransitionCharacters()),
+                            new String(actual.getTransitionCharacters()));
+                    assertEquals(Arrays.toString(expected.emit()), Arrays.toString(actual.emit()));
+                    if (id > 0) {
+                        assertEquals(expected.failure().getId(), actual.failure().getId());
+                    }
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void tokenizeDoubleArray() {
+        Trie trie = Trie.builder()
+                .compileDoubleArray()
+                .addKeyword("Alpha")
+                .addKeyword("Beta")
+                .addKeyword("Gamma")
+                .build();
+        Collection<Token> tokens = trie.tokenize("Hear: Alpha team first, Beta from the rear, Gamma in reserve");
+        assertEquals(7, tokens.size());
+    }
+
+    private String randomText(Random random, int length) {
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            // a small alphabet with a few non-latin characters gives plenty of overlapping matches
+            text.append("abcdeαβ".charAt(random.nextInt(7)));
+        }
+        return text.toString();
+    }
+
+    private String randomText(Random random, String[] alphabet, int length) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            text.append(alphabet[random.nextInt(alphabet.length)]);
+        }
+        return text.toString();
+    }
+
     private void checkEmit(Emit next, int expectedStart, int expectedEnd, String expectedKeyword) {
         assertEquals("Start of emit should have been " + expectedStart, expectedStart, next.getStart());
         assertEquals("End of emit should have been " + expectedEnd, expectedEnd, next.getEnd());
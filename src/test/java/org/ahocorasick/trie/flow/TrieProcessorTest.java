@@ -0,0 +1,205 @@
+package org.ahocorasick.trie.flow;
+
+import org.ahocorasick.trie.Emit;
+import org.ahocorasick.trie.Trie;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static junit.framework.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TrieProcessorTest {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private static Trie trie() {
+        return Trie.builder()
+                .addKeyword("hers")
+                .addKeyword("his")
+                .addKeyword("she")
+                .addKeyword("he")
+                .build();
+    }
+
+    @Test
+    public void scansOnlyWhatWasRequested() {
+        Trie trie = trie();
+        TrieProcessor processor = new TrieProcessor(trie, DIRECT, 2);
+        Source source = new Source();
+        processor.onSubscribe(source);
+        assertEquals(2, source.requested.get());
+
+        Sink sink = new Sink();
+        processor.subscribe(sink);
+        processor.onNext("ushers");
+        processor.onNext("she");
+        assertEquals(0, sink.items.size());
+        assertEquals(2, source.requested.get());
+
+        sink.subscription.request(1);
+        assertEquals(1, sink.items.size());
+        assertEquals(trie.parseText("ushers").toString(), sink.items.get(0).toString());
+        assertEquals(3, source.requested.get());
+
+        processor.onComplete();
+        assertEquals(1, sink.completed.getCount());
+        assertEquals(1, sink.items.size());
+        sink.subscription.request(5);
+        assertEquals(2, sink.items.size());
+        assertEquals(trie.parseText("she").toString(), sink.items.get(1).toString());
+        assertEquals(0, sink.completed.getCount());
+        assertEquals(null, sink.error);
+    }
+
+    @Test
+    public void slowSubscriberBoundsTheBuffer() throws InterruptedException {
+        final Trie trie = trie();
+        final List<String> texts = new ArrayList<>();
+        for (int index = 0; index < 1000; index++) {
+            texts.add("ushers " + index + (index % 3 == 0 ? " his" : ""));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final int bufferSize = 4;
+            final TrieProcessor processor = new TrieProcessor(trie, executor, bufferSize);
+            final Sink sink = new Sink() {
+                @Override
+                public void onNext(List<Emit> item) {
+                    super.onNext(item);
+                    if (this.items.size() % 10 == 0) {
+                        this.subscription.request(10);
+                    }
+                }
+            };
+            // pushes the texts as soon as they are requested, checking they never exceed the buffer
+            final AtomicLong overflow = new AtomicLong();
+            processor.onSubscribe(new Source() {
+                private int next = 0;
+
+                @Override
+                public synchronized void request(long n) {
+                    super.request(n);
+                    if (this.requested.get() - sink.received.get() > bufferSize) {
+                        overflow.incrementAndGet();
+                    }
+                    for (long count = 0; count < n && this.next < texts.size(); count++) {
+                        processor.onNext(texts.get(this.next++));
+                    }
+                    if (this.next == texts.size()) {
+                        processor.onComplete();
+                    }
+                }
+            });
+            processor.subscribe(sink);
+            sink.subscription.request(10);
+            assertTrue(sink.completed.await(10, TimeUnit.SECONDS));
+            assertEquals(null, sink.error);
+            assertEquals(0, overflow.get());
+            assertEquals(texts.size(), sink.items.size());
+            for (int index = 0; index < texts.size(); index++) {
+                assertEquals(trie.parseText(texts.get(index)).toString(), sink.items.get(index).toString());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void rejectsSecondSubscriberAndInvalidRequest() {
+        TrieProcessor processor = new TrieProcessor(trie(), DIRECT);
+        Source source = new Source();
+        processor.onSubscribe(source);
+        Sink first = new Sink();
+        processor.subscribe(first);
+        Sink second = new Sink();
+        processor.subscribe(second);
+        assertTrue(second.error instanceof IllegalStateException);
+
+        first.subscription.request(0);
+        assertTrue(first.error instanceof IllegalArgumentException);
+        assertTrue(source.cancelled);
+    }
+
+    @Test
+    public void cancelStopsTheUpstream() {
+        TrieProcessor processor = new TrieProcessor(trie(), DIRECT);
+        Source source = new Source();
+        processor.onSubscribe(source);
+        Sink sink = new Sink();
+        processor.subscribe(sink);
+        processor.onNext("ushers");
+        sink.subscription.cancel();
+        sink.subscription.request(1);
+        assertTrue(source.cancelled);
+        assertEquals(0, sink.items.size());
+        assertEquals(1, sink.completed.getCount());
+    }
+
+    private static class Source
+            implements Flow.Subscription {
+
+        protected final AtomicLong requested = new AtomicLong();
+
+        protected volatile boolean cancelled = false;
+
+        @Override
+        public void request(long n) {
+            this.requested.addAndGet(n);
+        }
+
+        @Override
+        public void cancel() {
+            this.cancelled = true;
+        }
+    }
+
+    private static class Sink
+            implements Flow.Subscriber<List<Emit>> {
+
+        protected final List<List<Emit>> items = new ArrayList<>();
+
+        protected final AtomicLong received = new AtomicLong();
+
+        protected final CountDownLatch completed = new CountDownLatch(1);
+
+        protected volatile Flow.Subscription subscription;
+
+        protected volatile Throwable error;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(List<Emit> item) {
+            this.items.add(item);
+            this.received.incrementAndGet();
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            this.error = throwable;
+            this.completed.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            this.completed.countDown();
+        }
+    }
+
+}